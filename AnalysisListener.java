@@ -0,0 +1,64 @@
+/**
+ * Observer of the fix-point computations of ControlGraph.
+ * <p>
+ * The graph calls the listener at each step of the analysis. When no
+ * listener is attached to the graph, nothing is computed for it; all
+ * the methods do nothing by default.
+ */
+interface AnalysisListener {
+
+    /** The abstract values have been initialized */
+    default void analysisStarted(ControlGraph g, EnvStatique ES) {}
+
+    /**
+     * A transition has been applied: its contribution is now in the new
+     * value of its target
+     * @param source the source of the transition
+     * @param tr the transition
+     */
+    default void transferApplied(ControlPoint source, Transition tr) {}
+
+    /**
+     * The new value of a point has been committed
+     * @param changed true if the value has changed
+     */
+    default void pointCommitted(ControlPoint cp, boolean changed) {}
+
+    /**
+     * A pass of the round-robin iteration is finished
+     * @param pass the number of the pass, from 1
+     * @param changed true if a value has changed during the pass
+     */
+    default void passFinished(ControlGraph g, int pass, boolean changed) {}
+
+    /** The fix-point is reached */
+    default void analysisFinished(ControlGraph g) {}
+}
+
+
+/**
+ * The textual trace of the analysis, on System.out
+ */
+class TraceListener implements AnalysisListener {
+
+    public void analysisStarted(ControlGraph g, EnvStatique ES) {
+        System.out.println(ES);
+        System.out.println("============= INIT ===========================");
+        System.out.println(g);
+    }
+
+    public void transferApplied(ControlPoint source, Transition tr) {
+        System.out.println("    " + source + " " + tr.theLabel 
+                           + " : new " + tr.theTarget.info.theNew);
+    }
+
+    public void passFinished(ControlGraph g, int pass, boolean changed) {
+        System.out.println("============= Passe numero "
+                           + pass + " ============");
+        System.out.println(g);
+    }
+
+    public void analysisFinished(ControlGraph g) {
+        System.out.println("============= Point fixe ============");
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * A parser of the tokens of a TokenArray, by recursive descent, for the
+ * grammar of Lg.jj: each method is the production of the same name, and
+ * builds the same abstract tree as Lg.
+ * <p>
+ * A Token is built only for the tokens kept in the tree: the keywords
+ * of the instructions, the identifiers, the constants and the operators.
+ * The punctuation and the other keywords are only checked.
+ */
+class ArrayParser {
+
+    /** The session in which the parser works */
+    Session session = Session.current();
+
+    private final TokenArray tokens;
+
+    /** The index of the next token */
+    int p = 0;
+
+    /** The index of the token after the last expression, and true if it
+     *  has a relation */
+    private int exprEnd = -1;
+    private boolean exprRelation;
+
+    ArrayParser(TokenArray tokens) {
+        this.tokens = tokens;
+    }
+
+    /** The kind of the next token */
+    int next() {
+        return tokens.kind[p];
+    }
+
+    /** The next token, checked, as a Token */
+    Token take(int kind) throws ParseException {
+        if (tokens.kind[p] != kind) throw expected(kind);
+        return tokens.token(p++);
+    }
+
+    /** Skip the next token, checked */
+    void skip(int kind) throws ParseException {
+        if (tokens.kind[p] != kind) throw expected(kind);
+        p++;
+    }
+
+    /**
+     * The error of Lg, at the next token: the tokens expected are in the
+     * order of their kinds, with the operators which may continue an
+     * expression just before
+     */
+    ParseException expected(int... kinds) {
+        BitSet k = new BitSet();
+        for (int i : kinds) k.set(i);
+        if (p == exprEnd) {
+            for (int i : new int[] { LgConstants.PLUS, LgConstants.MULT, LgConstants.MOINS,
+                                     LgConstants.DIV, LgConstants.AND, LgConstants.OR })
+                k.set(i);
+            if (!exprRelation) {
+                k.set(LgConstants.SUP);
+                k.set(LgConstants.INF);
+                k.set(LgConstants.EGAL);
+            }
+        }
+        Token last = p > 0 ? tokens.token(p - 1) : new Token();
+        last.next = tokens.token(p);
+        int sequences[][] = new int[k.cardinality()][];
+        int n = 0;
+        for (int i = k.nextSetBit(0); i >= 0; i = k.nextSetBit(i + 1))
+            sequences[n++] = new int[] { i };
+        return new ParseException(last, sequences, LgConstants.tokenImage);
+    }
+
+    /** The tokens which begin an instruction */
+    private static final int FIRST_INST[] = {
+        LgConstants.NULL, LgConstants.IDF, LgConstants.IF, LgConstants.WHILE,
+        LgConstants.READ, LgConstants.WRITE, LgConstants.ASSERT
+    };
+
+    /** True if the next token may begin an instruction */
+    boolean atInst() {
+        switch (next()) {
+        case LgConstants.NULL:
+        case LgConstants.IDF:
+        case LgConstants.IF:
+        case LgConstants.WHILE:
+        case LgConstants.READ:
+        case LgConstants.WRITE:
+        case LgConstants.ASSERT:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** A program, followed by the end of the input */
+    ProgNode input() throws ParseException {
+        ProgNode m = main();
+        skip(LgConstants.EOF);
+        return m;
+    }
+
+    ProgNode main() throws ParseException {
+        Token t = take(LgConstants.PROG);
+        Token n = take(LgConstants.IDF);
+        DeclsNode d = decls();
+        skip(LgConstants.BEGIN);
+        InstsNode i = insts(LgConstants.END);
+        skip(LgConstants.END);
+        return new ProgNode(t, n, new BlocNode(t, d, i));
+    }
+
+    DeclsNode decls() throws ParseException {
+        Token t = new Token();
+        List<DeclNode> decls = new LinkedList<DeclNode>();
+        while (next() == LgConstants.IDF) {
+            decls.add(decl());
+            if (next() != LgConstants.PV) throw expected(LgConstants.PV);
+            t = tokens.token(p++);
+        }
+        if (next() != LgConstants.BEGIN) throw expected(LgConstants.IDF, LgConstants.BEGIN);
+        return new DeclsNode(t, decls);
+    }
+
+    /** The instructions, up to one of the closing keywords */
+    InstsNode insts(int... closing) throws ParseException {
+        Token t = new Token();
+        List<InstNode> insts = new LinkedList<InstNode>();
+        while (atInst()) {
+            InstNode ii = inst();
+            if (next() != LgConstants.PV) throw expected(LgConstants.PV);
+            t = tokens.token(p++);
+            insts.add(ii);
+        }
+        close(closing);
+        return new InstsNode(t, insts);
+    }
+
+    /** Check that the instructions end with one of the closing keywords */
+    void close(int... closing) throws ParseException {
+        for (int k : closing)
+            if (next() == k) return;
+        int kinds[] = Arrays.copyOf(FIRST_INST, FIRST_INST.length + closing.length);
+        System.arraycopy(closing, 0, kinds, FIRST_INST.length, closing.length);
+        throw expected(kinds);
+    }
+
+    DeclNode decl() throws ParseException {
+        List<Idf> li = new LinkedList<Idf>();
+        li.add(new Idf(take(LgConstants.IDF)));
+        while (next() == LgConstants.VIRG) {
+            p++;
+            li.add(new Idf(take(LgConstants.IDF)));
+        }
+        if (next() != LgConstants.DP) throw expected(LgConstants.VIRG, LgConstants.DP);
+        Token t = tokens.token(p++);
+        return new DeclNode(t, li, type());
+    }
+
+    TypeNode type() throws ParseException {
+        if (next() != LgConstants.INT && next() != LgConstants.BOOL)
+            throw expected(LgConstants.INT, LgConstants.BOOL);
+        return new TypeNode(tokens.token(p++));
+    }
+
+    InstNode inst() throws ParseException {
+        switch (next()) {
+        case LgConstants.NULL:
+            return new NullNode(tokens.token(p++));
+        case LgConstants.IDF:
+            return instAff();
+        case LgConstants.IF:
+            return instCond();
+        case LgConstants.WHILE:
+            return instWhile();
+        case LgConstants.READ: {
+            Token t = tokens.token(p++);
+            return new ReadNode(t, take(LgConstants.IDF));
+        }
+        case LgConstants.WRITE: {
+            Token t = tokens.token(p++);
+            return new WriteNode(t, expr());
+        }
+        default: {
+            Token t = take(LgConstants.ASSERT);
+            AssertNode as = new AssertNode(t, expr());
+            if (!session.assertEncountered) {
+                session.assertEncountered = true;
+                return as;
+            } else {
+                throw new UnsupportedOperationException
+                    ("multiple assertion not implemened");
+            }
+        }
+        }
+    }
+
+    AffNode instAff() throws ParseException {
+        Token idf = take(LgConstants.IDF);
+        Token t = take(LgConstants.AFFECT);
+        if (next() == LgConstants.P) {
+            Token pp = tokens.token(p++);
+            skip(LgConstants.LPAR);
+            Token x = take(LgConstants.IDF);
+            skip(LgConstants.RPAR);
+            return new PAffNode(t, idf, pp, x);
+        }
+        return new AffNode(t, idf, expr());
+    }
+
+    CondNode instCond() throws ParseException {
+        Token t = take(LgConstants.IF);
+        ExprNode c = expr();
+        skip(LgConstants.THEN);
+        InstsNode th = insts(LgConstants.ELSE, LgConstants.ENDIF), el = null;
+        if (next() == LgConstants.ELSE) {
+            p++;
+            el = insts(LgConstants.ENDIF);
+        }
+        skip(LgConstants.ENDIF);
+        return new CondNode(t, c, th, el);
+    }
+
+    WhileNode instWhile() throws ParseException {
+        Token t = take(LgConstants.WHILE);
+        ExprNode c = expr();
+        skip(LgConstants.LOOP);
+        InstsNode body = insts(LgConstants.ENDLOOP);
+        skip(LgConstants.ENDLOOP);
+        return new WhileNode(t, c, body);
+    }
+
+    ExprNode expr() throws ParseException {
+        ExprNode s1 = simpleExpr();
+        exprRelation = false;
+        switch (next()) {
+        case LgConstants.EGAL:
+        case LgConstants.INF:
+        case LgConstants.SUP:
+            Token t = tokens.token(p++);
+            s1 = new ExprNode(t, s1, simpleExpr());
+            exprRelation = true;
+            break;
+        default:
+            break;
+        }
+        exprEnd = p;
+        return s1;
+    }
+
+    ExprNode simpleExpr() throws ParseException {
+        ExprNode t1 = terme();
+        while (next() == LgConstants.PLUS || next() == LgConstants.MOINS
+               || next() == LgConstants.OR) {
+            Token t = tokens.token(p++);
+            t1 = new ExprNode(t, t1, terme());
+        }
+        return t1;
+    }
+
+    ExprNode terme() throws ParseException {
+        ExprNode f1 = factor();
+        while (next() == LgConstants.MULT || next() == LgConstants.DIV
+               || next() == LgConstants.AND) {
+            Token t = tokens.token(p++);
+            f1 = new ExprNode(t, f1, factor());
+        }
+        return f1;
+    }
+
+    ExprNode factor() throws ParseException {
+        Token t;
+        switch (next()) {
+        case LgConstants.IDF:
+            t = tokens.token(p++);
+            return new ExprNode(t, new Idf(t));
+        case LgConstants.INTPOS:
+            t = tokens.token(p++);
+            return new ExprNode(t, Integer.parseInt(t.image));
+        case LgConstants.TRUE:
+            return new ExprNode(tokens.token(p++), true);
+        case LgConstants.FALSE:
+            return new ExprNode(tokens.token(p++), false);
+        case LgConstants.LPAR:
+            p++;
+            ExprNode u = expr();
+            skip(LgConstants.RPAR);
+            return u;
+        case LgConstants.NOT:
+            t = tokens.token(p++);
+            return new ExprNode(t, factor());
+        default:
+            throw expected(LgConstants.IDF, LgConstants.INTPOS, LgConstants.TRUE,
+                           LgConstants.FALSE, LgConstants.LPAR, LgConstants.NOT);
+        }
+    }
+}
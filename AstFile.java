@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+
+/**
+ * The binary form of an analysed program, written next to its source
+ * (prog.ff gives prog.ffb), so that the next runs skip the lexer, the
+ * parser, the analysis and the passes.
+ * <p>
+ * The file holds the tree after the passes, with the types of the
+ * expressions, as three tables: the strings (images of the tokens,
+ * names), the tokens (kind, image and position), and the nodes in
+ * post-order (kind, operands: tokens, strings, values and the indexes
+ * of the child nodes, which come before). It begins with the SHA-256
+ * of the source and the names of the passes: if the source or the
+ * passes change, the file is not used, and is written again. Only the
+ * resolution (slots, write sites, counting loops) is done at loading.
+ * <p>
+ * The numbers are written in 7-bit groups, mostly as differences (see
+ * role), so that most of them take one byte. The file is read through
+ * a mapping.
+ */
+class AstFile {
+
+    private static final int MAGIC = 0x46464231, VERSION = 2;
+
+    /** The kinds of nodes */
+    static final int PROG = 0, BLOC = 1, DECLS = 2, DECL = 3, TYPE = 4, INSTS = 5,
+        NULL = 6, AFF = 7, PAFF = 8, COND = 9, WHILE = 10, READ = 11, WRITE = 12,
+        ASSERT = 13, EXPR = 14;
+
+    /** The file of the binary form of a source */
+    static Path of(Path source) {
+        return source.resolveSibling(source.getFileName() + "b");
+    }
+
+    /**
+     * The program of a source, analysed: loaded from its binary form if
+     * it is up to date, or else parsed, analysed and written
+     * @throws ParseException, TokenMgrError, AnalyseException for an
+     *   incorrect program
+     */
+    static ProgNode program(Path source) throws IOException, ParseException {
+        ByteBuffer text = MappedCharStream.map(source);
+        byte hash[] = hash(text.duplicate());
+        String passes = passes();
+        Path file = of(source);
+        if (Files.exists(file)) {
+            ProgNode m = load(file, hash, passes);
+            if (m != null) return m;
+        }
+        ProgNode m = new ArrayParser(LgLexer.lex(text)).input();
+        m.analyse();
+        try {
+            save(m, file, hash, passes);
+        }
+        catch (IOException e) {
+            // the directory of the source may not be writable: the
+            // program is analysed again at the next run
+        }
+        return m;
+    }
+
+    /** The SHA-256 of a source */
+    static byte[] hash(ByteBuffer text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(text);
+            return md.digest();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new InternalException(" ! No SHA-256 ");
+        }
+    }
+
+    /** The names of the passes of the session, which shape the tree */
+    private static String passes() {
+        PassManager p = Session.current().passes;
+        return p == null ? "none" : p.names();
+    }
+
+    /**
+     * Write the binary form of an analysed program, through a temporary
+     * file, so that a file is never read half written
+     */
+    static void save(ProgNode m, Path file, byte hash[], String passes) throws IOException {
+        AstWriter w = new AstWriter();
+        int root = m.save(w);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+            writeString(out, passes);
+            writeVarint(out, w.strings.size());
+            for (String s : w.strings) writeString(out, s);
+            writeVarint(out, w.tokens.size());
+            int line = 0;
+            for (Token t : w.tokens) {
+                writeVarint(out, t.kind);
+                writeVarint(out, t.image == null ? 0 : w.string(t.image) + 1);
+                writeVarint(out, zigzag(t.beginLine - line));
+                writeVarint(out, zigzag(t.beginColumn));
+                writeVarint(out, zigzag(t.endLine - t.beginLine));
+                writeVarint(out, zigzag(t.endColumn - t.beginColumn));
+                line = t.beginLine;
+            }
+            writeVarint(out, w.nodes.size());
+            int token = 0;
+            for (int i = 0; i < w.nodes.size(); i++) {
+                int n[] = w.nodes.get(i);
+                writeVarint(out, n[0]);
+                writeVarint(out, n.length);
+                for (int j = 1; j < n.length; j++) {
+                    switch (role(n[0], j)) {
+                    case TOKEN:
+                        writeVarint(out, n[j] < 0 ? 0 : zigzag(n[j] - token) + 1);
+                        if (n[j] >= 0) token = n[j];
+                        break;
+                    case NODE:
+                        writeVarint(out, n[j] < 0 ? 0 : i - n[j]);
+                        break;
+                    default:
+                        writeVarint(out, zigzag(n[j]));
+                    }
+                }
+            }
+            writeVarint(out, root);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** The roles of the operands of the nodes */
+    private static final int VALUE = 0, TOKEN = 1, NODE = 2;
+
+    /**
+     * The role of the operand j of a node: a token is written as the
+     * difference with the last token written, a child node as the
+     * distance to its parent, and the others as they are
+     */
+    private static int role(int kind, int j) {
+        if (j == 1) return TOKEN;
+        switch (kind) {
+        case PROG: return j == 3 ? NODE : VALUE;
+        case DECL: return j == 2 ? NODE : TOKEN;
+        case AFF: return j == 2 ? TOKEN : NODE;
+        case PAFF: return TOKEN;
+        case READ: return j == 2 ? TOKEN : VALUE;
+        case ASSERT: return j == 2 ? VALUE : NODE;
+        case EXPR: return j < 5 ? VALUE : j == 5 ? TOKEN : NODE;
+        default: return NODE;
+        }
+    }
+
+    /** The integers are written in 7-bit groups, the signed ones
+     *  first mapped to 0, -1, 1, -2, ... */
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int v = 0, shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte b[] = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte b[] = new byte[readVarint(in)];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Load the binary form of a program
+     * @return the program, analysed, or null if the file is not for this
+     *   source and these passes, or is not a binary form
+     */
+    static ProgNode load(Path file, byte hash[], String passes) throws IOException {
+        ByteBuffer in = MappedCharStream.map(file);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            byte h[] = new byte[hash.length];
+            in.get(h);
+            if (!Arrays.equals(h, hash) || !readString(in).equals(passes)) return null;
+
+            String strings[] = new String[readVarint(in)];
+            for (int i = 0; i < strings.length; i++) strings[i] = readString(in);
+            Token tokens[] = new Token[readVarint(in)];
+            int line = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                int kind = readVarint(in), image = readVarint(in);
+                Token t = Token.newToken(kind, image == 0 ? null : strings[image - 1]);
+                t.beginLine = line += unzigzag(readVarint(in));
+                t.beginColumn = unzigzag(readVarint(in));
+                t.endLine = t.beginLine + unzigzag(readVarint(in));
+                t.endColumn = t.beginColumn + unzigzag(readVarint(in));
+                tokens[i] = t;
+            }
+            Object nodes[] = new Object[readVarint(in)];
+            int n[] = new int[16], token = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                n[0] = readVarint(in);
+                int length = readVarint(in);
+                if (n.length < length) n = Arrays.copyOf(n, length);
+                for (int j = 1; j < length; j++) {
+                    int v = readVarint(in);
+                    switch (role(n[0], j)) {
+                    case TOKEN:
+                        n[j] = v == 0 ? -1 : (token += unzigzag(v - 1));
+                        break;
+                    case NODE:
+                        n[j] = v == 0 ? -1 : i - v;
+                        break;
+                    default:
+                        n[j] = unzigzag(v);
+                    }
+                }
+                nodes[i] = node(n, length, strings, tokens, nodes);
+            }
+            ProgNode m = (ProgNode)nodes[readVarint(in)];
+            m.resolve();
+            return m;
+        }
+        catch (RuntimeException e) {
+            // truncated or not a binary form
+            return null;
+        }
+    }
+
+    /** A node, from its operands */
+    private static Object node(int n[], int length, String strings[], Token tokens[],
+                               Object nodes[]) {
+        Token t = tokens[n[1]];
+        switch (n[0]) {
+        case PROG:
+            return new ProgNode(t, Token.newToken(LgConstants.IDF, strings[n[2]]),
+                                (BlocNode)nodes[n[3]]);
+        case BLOC:
+            return new BlocNode(t, (DeclsNode)nodes[n[2]], (InstsNode)nodes[n[3]]);
+        case DECLS: {
+            List<DeclNode> l = new LinkedList<DeclNode>();
+            for (int j = 2; j < length; j++) l.add((DeclNode)nodes[n[j]]);
+            return new DeclsNode(t, l);
+        }
+        case DECL: {
+            List<Idf> l = new LinkedList<Idf>();
+            for (int j = 3; j < length; j++) l.add(new Idf(tokens[n[j]]));
+            return new DeclNode(t, l, (TypeNode)nodes[n[2]]);
+        }
+        case TYPE:
+            return new TypeNode(t);
+        case INSTS: {
+            List<InstNode> l = new LinkedList<InstNode>();
+            for (int j = 2; j < length; j++) l.add((InstNode)nodes[n[j]]);
+            return new InstsNode(t, l);
+        }
+        case NULL:
+            return new NullNode(t);
+        case AFF:
+            return new AffNode(t, tokens[n[2]], (ExprNode)nodes[n[3]]);
+        case PAFF:
+            return new PAffNode(t, tokens[n[2]], tokens[n[3]], tokens[n[4]]);
+        case COND:
+            return new CondNode(t, (ExprNode)nodes[n[2]], (InstsNode)nodes[n[3]],
+                                n[4] < 0 ? null : (InstsNode)nodes[n[4]]);
+        case WHILE:
+            return new WhileNode(t, (ExprNode)nodes[n[2]], (InstsNode)nodes[n[3]]);
+        case READ:
+            return new ReadNode(t, tokens[n[2]], Type.values()[n[3]]);
+        case WRITE:
+            return new WriteNode(t, (ExprNode)nodes[n[2]]);
+        case ASSERT:
+            return new AssertNode(t, (ExprNode)nodes[n[3]], strings[n[2]]);
+        case EXPR:
+            return ExprNode.load(t, n, tokens, nodes);
+        default:
+            throw new IllegalArgumentException("node kind " + n[0]);
+        }
+    }
+}
+
+
+/**
+ * The tables of the binary form of a program (see AstFile), filled by
+ * the save methods of the nodes
+ */
+class AstWriter {
+
+    final List<String> strings = new ArrayList<String>();
+    final List<Token> tokens = new ArrayList<Token>();
+    final List<int[]> nodes = new ArrayList<int[]>();
+
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private final Map<Token, Integer> tokenIndex = new IdentityHashMap<Token, Integer>();
+
+    /** The index of a string */
+    int string(String s) {
+        Integer i = stringIndex.get(s);
+        if (i == null) {
+            i = strings.size();
+            strings.add(s);
+            stringIndex.put(s, i);
+        }
+        return i;
+    }
+
+    /** The index of a token; a token shared by nodes is written once */
+    int token(Token t) {
+        Integer i = tokenIndex.get(t);
+        if (i == null) {
+            i = tokens.size();
+            tokens.add(t);
+            tokenIndex.put(t, i);
+            if (t.image != null) string(t.image);
+        }
+        return i;
+    }
+
+    /**
+     * Add a node, after its children
+     * @param kind the kind of the node (see AstFile)
+     * @param t the token of the node
+     * @param operands the other operands, which depend on the kind
+     * @return the index of the node
+     */
+    int node(int kind, Token t, int... operands) {
+        int n[] = new int[operands.length + 2];
+        n[0] = kind;
+        n[1] = token(t);
+        System.arraycopy(operands, 0, n, 2, operands.length);
+        nodes.add(n);
+        return nodes.size() - 1;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * A parser which builds the control graph of a program as it parses it,
+ * without its abstract tree, for the runs which only analyse the signs
+ * (see LgBatch).
+ * <p>
+ * The declarations are parsed first, so that each instruction is
+ * analysed (types), optimized by the passes of the session, and
+ * appended to the graph as soon as it is parsed. Only the expressions
+ * and the simple instructions are built, as labels of the transitions;
+ * the conditionals and the loops are appended in two steps around their
+ * parts (see ControlGraph.Branch). The graph is the same as with
+ * ProgNode.buildControlGraph, and the errors too, except that a typing
+ * error is reported before a syntax error which follows it.
+ */
+class CfgParser extends ArrayParser {
+
+    /** The graph being built, at its exit point */
+    private ControlGraph g;
+
+    /** The static environment, from the declarations */
+    private EnvStatique E;
+
+    private final PassManager passes = session.passes;
+
+    CfgParser(TokenArray tokens) {
+        super(tokens);
+    }
+
+    /**
+     * The control graph of a program, optimized by the passes of the
+     * session, with the indices of its variables
+     * @throws AnalyseException when there is a typing error
+     */
+    ControlGraph graph() throws ParseException {
+        skip(LgConstants.PROG);
+        skip(LgConstants.IDF);
+        E = decls().theDecls();
+        skip(LgConstants.BEGIN);
+        g = new ControlGraph();
+        appendInsts(LgConstants.END);
+        skip(LgConstants.END);
+        skip(LgConstants.EOF);
+        if (passes != null) passes.run(g);
+        g.setIdf2Index(E);
+        return g;
+    }
+
+    /**
+     * The static environment of the program
+     * @throws AnalyseException if the program is not parsed
+     */
+    EnvStatique getDecls() {
+        if (E == null)
+            throw new AnalyseException("Perform type analysis first");
+        return E;
+    }
+
+    /** Append the instructions, up to one of the closing keywords */
+    private void appendInsts(int... closing) throws ParseException {
+        while (atInst()) {
+            appendInst();
+            skip(LgConstants.PV);
+        }
+        close(closing);
+    }
+
+    /**
+     * Parse the instructions of a part removed by the passes: they are
+     * analysed, but appended to a graph which is dropped, and the names
+     * of its points are given again
+     */
+    private void dropInsts(int... closing) throws ParseException {
+        ControlGraph kept = g;
+        int points = session.pointCounter;
+        g = new ControlGraph();
+        appendInsts(closing);
+        g = kept;
+        session.pointCounter = points;
+    }
+
+    private void appendInst() throws ParseException {
+        switch (next()) {
+        case LgConstants.IF:
+            appendCond();
+            break;
+        case LgConstants.WHILE:
+            appendWhile();
+            break;
+        default:
+            InstNode in = inst();
+            in.analyse(E);
+            if (passes != null) passes.run(in);
+            in.appendControlGraph(g);
+        }
+    }
+
+    /** A condition, analysed and optimized */
+    private ExprNode condition(Token t, String inst) throws ParseException {
+        ExprNode c = expr();
+        if (c.theType(E) != Type.BOOL)
+            throw new AnalyseException
+                ("Condition should be boolean in " + inst + "  line " +
+                 t.beginLine + " column " + t.beginColumn);
+        return passes == null ? c : passes.run(c);
+    }
+
+    private void appendCond() throws ParseException {
+        Token t = take(LgConstants.IF);
+        ExprNode c = condition(t, "IF");
+        skip(LgConstants.THEN);
+        Boolean taken = passes == null ? null : passes.taken(c, false);
+        ControlGraph.Branch b = taken == null ? g.beginCond(c) : null;
+        if (taken == null || taken)
+            appendInsts(LgConstants.ELSE, LgConstants.ENDIF);
+        else
+            dropInsts(LgConstants.ELSE, LgConstants.ENDIF);
+        if (next() == LgConstants.ELSE) {
+            p++;
+            if (b != null) g.beginElse(b);
+            if (taken == null || !taken)
+                appendInsts(LgConstants.ENDIF);
+            else
+                dropInsts(LgConstants.ENDIF);
+        }
+        skip(LgConstants.ENDIF);
+        if (b != null) g.endCond(b);
+    }
+
+    private void appendWhile() throws ParseException {
+        Token t = take(LgConstants.WHILE);
+        ExprNode c = condition(t, "WHILE");
+        skip(LgConstants.LOOP);
+        if (passes != null && passes.taken(c, true) != null)
+            dropInsts(LgConstants.ENDLOOP);
+        else {
+            ControlGraph.Branch b = g.beginWhile(c);
+            appendInsts(LgConstants.ENDLOOP);
+            g.endWhile(b);
+        }
+        skip(LgConstants.ENDLOOP);
+    }
+}
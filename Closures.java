@@ -0,0 +1,23 @@
+/**
+ * The closures built from the abstract tree (engine CLOSURE, see
+ * Session.engine): each node is translated once into a tree of
+ * lambdas, specialized for its operator and its operands, so that the
+ * switches of ExprNode.evaluateInt and evaluateBool are done at
+ * compile time and not at each evaluation. See InstNode.compileClosure
+ * and ExprNode.compileInt, compileBool.
+ */
+
+/** An expression of type INT */
+interface IntExpr {
+    int eval(EnvDynamique ED);
+}
+
+/** An expression of type BOOL */
+interface BoolExpr {
+    boolean eval(EnvDynamique ED);
+}
+
+/** An instruction, or a sequence of instructions */
+interface InstCode {
+    void execute(EnvDynamique ED);
+}
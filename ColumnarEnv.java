@@ -0,0 +1,183 @@
+import java.util.*;
+
+
+/**
+ * Columnar dynamic environment, for running one program over many
+ * input tuples at once (see ProgNode.executeBatch).
+ * <p>
+ * Each tuple is a lane: the values of a variable are one column, with
+ * one value per lane. The instructions work on a mask of the active
+ * lanes (those where the instruction is executed). The operations on
+ * the expressions are loops over whole columns. A lane whose execution
+ * fails (division by zero, end of its input) is stopped, and the other
+ * lanes go on.
+ * <p>
+ * Each write instruction (a write site, see EnvStatique.newWriteSite)
+ * has its own column of output, holding for each lane the values it
+ * has written.
+ */
+class ColumnarEnv {
+
+    /** The number of lanes */
+    final int n;
+
+    /** The columns of the integer and boolean variables, by slot */
+    final int ints[][];
+    final boolean bools[][];
+
+    /** The input tuples, and the next value to read in each tuple */
+    private final int inputs[][];
+    private final int next[];
+
+    /** The lanes that have not failed, and the number of failures */
+    final boolean alive[];
+    int errors = 0;
+
+    /** The failure of each lane, null if none */
+    final String error[];
+
+    /** The number of failed assertions of each lane */
+    final int failures[];
+
+    /** The outputs, by write site */
+    final WriteColumn columns[];
+
+    /** Free temporary columns */
+    private ArrayDeque<int[]> intTemps = new ArrayDeque<int[]>();
+    private ArrayDeque<boolean[]> boolTemps = new ArrayDeque<boolean[]>();
+
+    /**
+     * @param E the static environment of the program
+     * @param inputs the input tuples, one per lane
+     */
+    ColumnarEnv(EnvStatique E, int inputs[][]) {
+        n = inputs.length;
+        this.inputs = inputs;
+        next = new int[n];
+        ints = new int[E.numberOfSlots(Type.INT)][n];
+        bools = new boolean[E.numberOfSlots(Type.BOOL)][n];
+        for (boolean b[] : bools) Arrays.fill(b, true);
+        alive = new boolean[n];
+        Arrays.fill(alive, true);
+        error = new String[n];
+        failures = new int[n];
+        columns = new WriteColumn[E.numberOfWriteSites()];
+    }
+
+    /** A temporary column, to be released */
+    int[] intTemp() {
+        int t[] = intTemps.poll();
+        return t == null ? new int[n] : t;
+    }
+
+    void release(int t[]) {
+        intTemps.push(t);
+    }
+
+    /** A temporary column, to be released */
+    boolean[] boolTemp() {
+        boolean t[] = boolTemps.poll();
+        return t == null ? new boolean[n] : t;
+    }
+
+    void release(boolean t[]) {
+        boolTemps.push(t);
+    }
+
+    /**
+     * The next value of the input of a lane
+     * @param name the variable read, for the message
+     */
+    int read(int lane, String name) {
+        if (next[lane] == inputs[lane].length) {
+            fail(lane, "No more input for " + name);
+            return 0;
+        }
+        return inputs[lane][next[lane]++];
+    }
+
+    /** Stop a lane */
+    void fail(int lane, String message) {
+        if (!alive[lane]) return;
+        alive[lane] = false;
+        error[lane] = message;
+        errors++;
+    }
+
+    /** The output column of a write site */
+    WriteColumn column(int site, Type t) {
+        if (columns[site] == null) columns[site] = new WriteColumn(t);
+        return columns[site];
+    }
+
+    /** True if a lane is active in a mask */
+    static boolean any(boolean mask[]) {
+        for (boolean b : mask)
+            if (b) return true;
+        return false;
+    }
+
+    /**
+     * Printable form: one line per lane, with tab-separated fields:
+     * lane, status, number of failed assertions, then the values
+     * written by each write site, separated by spaces
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder("lane\tstatus\tassert_failures");
+        for (int w = 0; w < columns.length; w++) s.append("\twrite").append(w + 1);
+        s.append('\n');
+        List<List<String>> written = new ArrayList<List<String>>();
+        for (WriteColumn c : columns) written.add(c == null ? null : c.byLane(n));
+        for (int i = 0; i < n; i++) {
+            s.append(i).append('\t').append(alive[i] ? "ok" : error[i])
+                .append('\t').append(failures[i]);
+            for (List<String> w : written)
+                s.append('\t').append(w == null ? "" : w.get(i));
+            s.append('\n');
+        }
+        return s.toString();
+    }
+}
+
+
+/**
+ * The output of one write site: the pairs (lane, value) in the order
+ * of the execution
+ */
+class WriteColumn {
+
+    /** The type of the values (booleans are stored as 0, 1) */
+    final Type type;
+
+    int lanes[] = new int[16];
+    int values[] = new int[16];
+    int size = 0;
+
+    WriteColumn(Type t) {
+        type = t;
+    }
+
+    void add(int lane, int v) {
+        if (size == lanes.length) {
+            lanes = Arrays.copyOf(lanes, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        lanes[size] = lane;
+        values[size++] = v;
+    }
+
+    /** For each lane, the values written, separated by spaces */
+    List<String> byLane(int n) {
+        StringBuilder b[] = new StringBuilder[n];
+        for (int i = 0; i < n; i++) b[i] = new StringBuilder();
+        for (int k = 0; k < size; k++) {
+            StringBuilder s = b[lanes[k]];
+            if (s.length() > 0) s.append(' ');
+            if (type == Type.BOOL) s.append(values[k] != 0);
+            else s.append(values[k]);
+        }
+        List<String> l = new ArrayList<String>();
+        for (StringBuilder s : b) l.add(s.toString());
+        return l;
+    }
+}
@@ -0,0 +1,218 @@
+import java.util.*;
+
+
+/**
+ * An immutable, compact form of a control graph, for large graphs.
+ * <p>
+ * The control points are the integers 0 .. n-1, numbered in the order
+ * of theControlPoints in the original graph. The transitions are stored
+ * in compressed sparse rows: the transitions leaving point p are the
+ * ranks e in succ[p] .. succ[p+1]-1, going to target[e] with label
+ * label[e]. The reverse edges are stored the same way: the transitions
+ * entering point p are edge[k] for k in pred[p] .. pred[p+1]-1, in the
+ * order of their sources.
+ */
+class CompactControlGraph implements VariableIndexing {
+
+    /** number of control points */
+    final int numberOfPoints;
+
+    /** the entry, exit and error points; error is -1 if there is none */
+    final int entry, exit, error;
+
+    /** the forward edges */
+    final int succ[];
+    final int source[];
+    final int target[];
+    final TransitionLabel label[];
+
+    /** the reverse edges */
+    final int pred[];
+    final int edge[];
+
+    /** the variables, shared with the original graph */
+    private Map<Idf, Integer> idf2index;
+    private int numberOfIntIdfs;
+    private boolean packedSigns;
+
+    /** the abstract values, indexed by the points, after computeAbstractSigns */
+    InfoAttached info[];
+
+    /**
+     * Constructor from a control graph, whose variables are already
+     * indexed (see ControlGraph.setIdf2Index)
+     */
+    CompactControlGraph(ControlGraph g) {
+        numberOfPoints = g.theControlPoints.size();
+        Map<ControlPoint, Integer> id = new HashMap<ControlPoint, Integer>();
+        int numberOfEdges = 0;
+        for (ControlPoint cp : g.theControlPoints) {
+            id.put(cp, id.size());
+            numberOfEdges += cp.theTransitions.size();
+        }
+        entry = id.get(g.entry);
+        exit = id.get(g.exit);
+        error = g.error == null ? -1 : id.get(g.error);
+
+        succ = new int[numberOfPoints + 1];
+        source = new int[numberOfEdges];
+        target = new int[numberOfEdges];
+        label = new TransitionLabel[numberOfEdges];
+        int e = 0;
+        for (ControlPoint cp : g.theControlPoints) {
+            int p = id.get(cp);
+            succ[p] = e;
+            for (Transition tr : cp.theTransitions) {
+                source[e] = p;
+                target[e] = id.get(tr.theTarget);
+                label[e] = tr.theLabel;
+                e++;
+            }
+        }
+        succ[numberOfPoints] = e;
+
+        // reverse edges, by counting: the edges entering a point stay
+        // in the order of the forward edges
+        pred = new int[numberOfPoints + 1];
+        edge = new int[numberOfEdges];
+        for (e = 0; e < numberOfEdges; e++)
+            pred[target[e] + 1]++;
+        for (int p = 0; p < numberOfPoints; p++)
+            pred[p + 1] += pred[p];
+        int fill[] = Arrays.copyOf(pred, numberOfPoints);
+        for (e = 0; e < numberOfEdges; e++)
+            edge[fill[target[e]]++] = e;
+
+        idf2index = g.getIdf2Index();
+        numberOfIntIdfs = g.getNumberOfIntIdfs();
+        packedSigns = g.isPackedSigns();
+    }
+
+    public int indexOfIdf(Idf i) {
+        return idf2index.get(i).intValue();
+    }
+
+    public int getNumberOfIntIdfs() {
+        return numberOfIntIdfs;
+    }
+
+    public AbstractSignVector newSignVector(Sign s) {
+        if (packedSigns)
+            return new PackedSignVector(numberOfIntIdfs, s);
+        return new SignVector(numberOfIntIdfs, s);
+    }
+
+    boolean errorIsReachable() {
+        return error != -1 && !info[error].getAbstractValue().isBottom();
+    }
+
+    /**
+     * The sign analysis, with the same worklist algorithm as
+     * ControlGraph.computeAbstractSignsWorklist
+     *
+     * @param ES the static environment
+     * @return the number of transitions evaluated
+     */
+    public int computeAbstractSigns(EnvStatique ES) {
+        info = new InfoAttached[numberOfPoints];
+        for (int p = 0; p < numberOfPoints; p++)
+            info[p] = new InfoAttached(this, newSignVector(Sign.BOT),
+                                       newSignVector(Sign.BOT));
+        info[entry] = new InfoAttached(this, newSignVector(Sign.TOP),
+                                       newSignVector(Sign.BOT));
+
+        int order[] = reversePostorder();
+        int rank[] = new int[numberOfPoints];
+        for (int k = 0; k < numberOfPoints; k++)
+            rank[order[k]] = k;
+
+        PriorityQueue<Integer> worklist = new PriorityQueue<Integer>();
+        boolean queued[] = new boolean[numberOfPoints];
+        for (int k = 0; k < numberOfPoints; k++)
+            if (order[k] != entry) {
+                worklist.add(k);
+                queued[k] = true;
+            }
+
+        int evaluated = 0;
+        while (!worklist.isEmpty()) {
+            int k = worklist.poll();
+            queued[k] = false;
+            int p = order[k];
+
+            for (int i = pred[p]; i < pred[p + 1]; i++) {
+                int e = edge[i];
+                label[e].computeAbstractSigns(info[source[e]], info[p], ES);
+                evaluated++;
+            }
+
+            if (info[p].commit(newSignVector(Sign.BOT))) {
+                for (int e = succ[p]; e < succ[p + 1]; e++) {
+                    int t = rank[target[e]];
+                    if (!queued[t] && target[e] != entry) {
+                        worklist.add(t);
+                        queued[t] = true;
+                    }
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * @return the points in reverse postorder of a depth-first traversal
+     * from the entry, followed by the unreachable points
+     */
+    int[] reversePostorder() {
+        int order[] = new int[numberOfPoints];
+        boolean visited[] = new boolean[numberOfPoints];
+        int stack[] = new int[numberOfPoints];
+        int next[] = new int[numberOfPoints];
+        int top = 0;
+        int post = numberOfPoints;
+        stack[0] = entry;
+        next[0] = succ[entry];
+        visited[entry] = true;
+        while (top >= 0) {
+            int p = stack[top];
+            if (next[top] < succ[p + 1]) {
+                int t = target[next[top]++];
+                if (!visited[t]) {
+                    visited[t] = true;
+                    top++;
+                    stack[top] = t;
+                    next[top] = succ[t];
+                }
+            } else {
+                order[--post] = p;
+                top--;
+            }
+        }
+        // the reachable points are in order[post ..]: move them first
+        int reachable = numberOfPoints - post;
+        System.arraycopy(order, post, order, 0, reachable);
+        int k = reachable;
+        for (int p = 0; p < numberOfPoints; p++)
+            if (!visited[p]) order[k++] = p;
+        return order;
+    }
+
+    /** Printable name of a point, for the DOT file */
+    private String pointName(int p) {
+        String kind = p == entry ? "entry " : p == exit ? "exit " 
+            : p == error ? "error " : "";
+        return "\"" + kind + p + (info == null ? "" : " " + info[p]) + "\"";
+    }
+
+    public String toDotFile() {
+        StringBuilder st = new StringBuilder("digraph g {\n");
+        for (int p = 0; p < numberOfPoints; p++) {
+            for (int e = succ[p]; e < succ[p + 1]; e++)
+                st.append(pointName(p)).append("->").append(pointName(target[e]))
+                    .append("[label=\"").append(label[e].toDotFile()).append("\"]\n");
+            st.append("\n");
+        }
+        st.append("\n}\n");
+        return st.toString();
+    }
+}
@@ -25,6 +25,10 @@ class CondTransition extends TransitionLabel {
 
     ExprNode theCond;
 
+    /** The expression written, for the transition TRUE of a write: its
+     *  variables are used (see Liveness). null for the others */
+    ExprNode written;
+
     NatureTransition getNature() {
         return NatureTransition.COND;
     }
@@ -36,6 +40,12 @@ class CondTransition extends TransitionLabel {
             theCond = ExprNode.buildNotNode(c);
     }
 
+    /** The transition TRUE of a write */
+    CondTransition(WriteNode w) {
+        theCond = condTRUE.theCond;
+        written = w.getExpr();
+    }
+
     public void computeAbstractSigns(InfoAttached infoSource,
                                      InfoAttached infoTarget,
                                      EnvStatique ES) {
@@ -125,7 +135,7 @@ class AssignTransition extends TransitionLabel {
                     throw new InternalException
                             ("This should be an arithmetic expression " + idf);
                 else
-                    return ((SignVector) info.getAbstractValue()).get
+                    return ((AbstractSignVector) info.getAbstractValue()).get
                             (info.theCG.indexOfIdf(idf));
             case UNARY:
                 // les operateurs unaires, forcement bool (pas de - unaire dans Lg.jj)
@@ -159,7 +169,7 @@ class AssignTransition extends TransitionLabel {
     }
 
     Sign signOfP(InfoAttached info, Idf x) {
-        Sign signOfx = ((SignVector) info.getAbstractValue()).get
+        Sign signOfx = ((AbstractSignVector) info.getAbstractValue()).get
                 (info.theCG.indexOfIdf(x));
         return SignLattice.P(signOfx);
     }
@@ -169,10 +179,8 @@ class AssignTransition extends TransitionLabel {
                                      InfoAttached infoTarget,
                                      EnvStatique ES) {
         if (ES.getType(theAssign.getIdf()) != Type.INT) {
-            System.out.println("      not integer " + theAssign.getIdf());
             infoTarget.accumulateNew(infoSource);
         } else {
-            System.out.println("    integer         " + theAssign.getIdf());
             Sign es;
 
             if (theAssign instanceof PAffNode)
@@ -182,10 +190,10 @@ class AssignTransition extends TransitionLabel {
 
             // mise a jour etat but, etape n
             Idf ii = theAssign.getIdf();
-            // on envoie un SignVector ou seul le champ [ii] importe
+            // on envoie un vecteur de signes ou seul le champ [ii] importe
             infoTarget.accumulateNew
                     (infoSource, ii,
-                            new SignVector(infoSource.theCG.getNumberOfIntIdfs(), es));
+                            infoSource.theCG.newSignVector(es));
         }
     }
 
@@ -223,15 +231,37 @@ class Transition {
  * A control point in the control graph
  */
 class ControlPoint {
-    static int counter = 0;
-    String name;
     InfoAttached info;
     ArrayList<Transition> theTransitions;
 
+    /** The name, built on demand from subname, what and number */
+    private String name;
+    private String subname;
+    private MiniLgNode what;
+    private int number;
+
     ControlPoint(String subname) {
+        this(subname, null);
+    }
+
+    /**
+     * @param subname the kind of point
+     * @param what the instruction or expression that the name refers to,
+     *        may be null. Its printable form is only computed when the
+     *        name is needed.
+     */
+    ControlPoint(String subname, MiniLgNode what) {
         theTransitions = new ArrayList<Transition>();
-        name = subname + counter;
-        counter++;
+        this.subname = subname;
+        this.what = what;
+        number = Session.current().pointCounter++;
+    }
+
+    String getName() {
+        if (name == null)
+            name = what == null ? subname + number 
+                                : subname + " " + what + " | " + number;
+        return name;
     }
 
     public InfoAttached getInfo() {
@@ -240,7 +270,7 @@ class ControlPoint {
 
     public String toString() {
         return
-                "\"" + name +
+                "\"" + getName() +
                         " " + info +
                         "\"";
     }
@@ -284,7 +314,7 @@ class ControlPoint {
  * The control graph: one entry point, one exit point, potentially one error state
  * among the set of control points
  */
-class ControlGraph {
+class ControlGraph implements VariableIndexing {
     List<ControlPoint> theControlPoints;
     ControlPoint entry, exit, error;
 
@@ -309,6 +339,35 @@ class ControlGraph {
 
     private int numberOfIntIdfs = 0;
 
+    /**
+     * true if the abstract values are PackedSignVectors, false for
+     * SignVectors
+     */
+    private boolean packedSigns = false;
+
+    public void setPackedSigns(boolean packed) {
+        packedSigns = packed;
+    }
+
+    public boolean isPackedSigns() {
+        return packedSigns;
+    }
+
+    Map<Idf, Integer> getIdf2Index() {
+        return idf2index;
+    }
+
+    /**
+     * @param s a sign
+     * @return a new vector of signs for the integer variables, all equal
+     * to s, in the representation chosen for this graph
+     */
+    public AbstractSignVector newSignVector(Sign s) {
+        if (packedSigns)
+            return new PackedSignVector(numberOfIntIdfs, s);
+        return new SignVector(numberOfIntIdfs, s);
+    }
+
     public void setIdf2Index(EnvStatique theES) {
         // count the variables of type int in the static envt theES
         // and build the correspondence between 
@@ -324,23 +383,36 @@ class ControlGraph {
     }
 
 
-    public void computeAbstractSigns(EnvStatique ES) {
-        // trace 
-        System.out.println(ES);
-        // ----------------------------------------
-
-        // init: attach BOT values for all integer variables, 
-        // except in the initial state where the old value is set to TOP 
-        // (As if the first step  of the fix-point computation was already done) 
+    /**
+     * init: attach BOT values for all integer variables,
+     * except in the initial state where the old value is set to TOP
+     * (As if the first step  of the fix-point computation was already done)
+     */
+    private void initAbstractSigns() {
         for (ControlPoint cp : theControlPoints) {
             cp.attach(new InfoAttached(this,
-                    new SignVector(numberOfIntIdfs),
-                    new SignVector(numberOfIntIdfs)));
+                    newSignVector(Sign.BOT),
+                    newSignVector(Sign.BOT)));
         }
         entry.attach
                 (new InfoAttached(this,
-                        new SignVector(numberOfIntIdfs, Sign.TOP),
-                        new SignVector(numberOfIntIdfs)));
+                        newSignVector(Sign.TOP),
+                        newSignVector(Sign.BOT)));
+    }
+
+    /**
+     * The listener notified of the steps of the fix-point computations,
+     * null if there is none
+     */
+    private AnalysisListener listener = null;
+
+    public void setAnalysisListener(AnalysisListener l) {
+        listener = l;
+    }
+
+    public void computeAbstractSigns(EnvStatique ES) {
+        initAbstractSigns();
+        if (listener != null) listener.analysisStarted(this, ES);
 
         // une phase de calcul de point fixe qui dit si elle a touche
         // a qq chose on travaille en lisant dans theSigns et en
@@ -350,17 +422,13 @@ class ControlGraph {
         // avant : A -> B on fait l'union avec la valeur deja la, qui
         // avait ete placee par une transition C -> B vue avant.
 
-        System.out.println("============= INIT ===========================");
-        System.out.println(this);
         int pass = 1;
         while (true) {
-            System.out.println("============= Passe numero "
-                    + pass++ + " ============");
-
             // parcours des transitions 
             for (ControlPoint cp : theControlPoints) {
                 for (Transition tr : cp.theTransitions) {
                     tr.computeAbstractSigns(cp.info, ES);
+                    if (listener != null) listener.transferApplied(cp, tr);
                 }
             }
 
@@ -368,7 +436,7 @@ class ControlGraph {
             // puisqu'on touche aux etats buts des transitions
             // on y met new=TOP toujours
 
-            entry.info.setNew(new SignVector(numberOfIntIdfs, Sign.TOP));
+            entry.info.setNew(newSignVector(Sign.TOP));
 
             // ici tout le monde a un nouveau NewSign
             //System.out.println(" ========== AVANT COMMIT ========= ");
@@ -379,20 +447,205 @@ class ControlGraph {
             for (ControlPoint cp : theControlPoints) {
                 // System.out.println("commit for state " + cp);
 
-                if (cp.info.commit(new SignVector(numberOfIntIdfs))) {
+                boolean changed = cp.info.commit(newSignVector(Sign.BOT));
+                if (listener != null) listener.pointCommitted(cp, changed);
+                if (changed) {
                     change = true;
                 }
             }
 
-            //System.out.println(" ========== APRES COMMIT ========= ");
-            System.out.println(this);
-            //System.out.println("                    CHANGE" + change);
+            if (listener != null) listener.passFinished(this, pass, change);
+            pass++;
             if (!change) break;
             //if (pass > 16) break;
         }
 
+        if (listener != null) listener.analysisFinished(this);
+    }
+
+
+    /**
+     * Same fix-point as computeAbstractSigns, computed with a worklist
+     * instead of round-robin passes: a control point is re-evaluated only
+     * when the old value of one of its predecessors has changed.
+     * The points are taken in reverse postorder from the entry, so that
+     * in the acyclic parts of the graph all the sources of a point are
+     * stable before the point itself is evaluated.
+     *
+     * @param ES the static environment
+     * @return the number of transitions evaluated
+     */
+    public int computeAbstractSignsWorklist(EnvStatique ES) {
+        initAbstractSigns();
+        if (listener != null) listener.analysisStarted(this, ES);
+
+        // reverse postorder, the points unreachable from the entry last
+        List<ControlPoint> order = reversePostorder();
+        Map<ControlPoint, Integer> rank = new HashMap<ControlPoint, Integer>();
+        for (int k = 0; k < order.size(); k++)
+            rank.put(order.get(k), k);
+
+        // the predecessors are in the order of theControlPoints, so
+        // that the unions into a point are done in the same order as in
+        // the round-robin passes (SignLattice.union is not commutative)
+        Map<ControlPoint, List<ControlPoint>> preds = predecessors();
+
+        // every point has to be evaluated at least once. The entry is
+        // never evaluated: its value stays TOP
+        PriorityQueue<Integer> worklist = new PriorityQueue<Integer>();
+        boolean queued[] = new boolean[order.size()];
+        for (int k = 0; k < order.size(); k++)
+            if (order.get(k) != entry) {
+                worklist.add(k);
+                queued[k] = true;
+            }
+
+        int evaluated = 0;
+        while (!worklist.isEmpty()) {
+            int k = worklist.poll();
+            queued[k] = false;
+            ControlPoint cp = order.get(k);
+
+            // new value of cp = union of the transitions coming into cp,
+            // exactly as in one pass of the round-robin iteration
+            for (ControlPoint source : preds.get(cp))
+                for (Transition tr : source.theTransitions)
+                    if (tr.theTarget == cp) {
+                        tr.computeAbstractSigns(source.info, ES);
+                        if (listener != null) listener.transferApplied(source, tr);
+                        evaluated++;
+                    }
+
+            boolean changed = cp.info.commit(newSignVector(Sign.BOT));
+            if (listener != null) listener.pointCommitted(cp, changed);
+            if (changed) {
+                for (Transition tr : cp.theTransitions) {
+                    int t = rank.get(tr.theTarget);
+                    if (!queued[t] && tr.theTarget != entry) {
+                        worklist.add(t);
+                        queued[t] = true;
+                    }
+                }
+            }
+        }
+        if (listener != null) listener.analysisFinished(this);
+        return evaluated;
     }
 
+    /**
+     * The reverse edges, which the graph does not store
+     * @return for each point, the sources of the transitions entering
+     * it, each once, in the order of theControlPoints
+     */
+    Map<ControlPoint, List<ControlPoint>> predecessors() {
+        Map<ControlPoint, List<ControlPoint>> preds =
+                new HashMap<ControlPoint, List<ControlPoint>>();
+        for (ControlPoint cp : theControlPoints)
+            preds.put(cp, new ArrayList<ControlPoint>());
+        for (ControlPoint cp : theControlPoints)
+            for (Transition tr : cp.theTransitions) {
+                List<ControlPoint> p = preds.get(tr.theTarget);
+                if (!p.contains(cp)) p.add(cp);
+            }
+        return preds;
+    }
+
+    /**
+     * Remove the assignments whose value is never used (see Liveness):
+     * each becomes a transition TRUE, and the point after it is merged
+     * into the point before it when it can (see mergeSkips).
+     * <p>
+     * A read of an unused variable is removed as well: the graph is
+     * only an abstraction of the program, for the analyses.
+     *
+     * @return the number of assignments removed
+     */
+    int eliminateDeadStores() {
+        Liveness live = new Liveness(this);
+        Set<Transition> emptied = new HashSet<Transition>();
+        for (ControlPoint cp : theControlPoints)
+            for (Transition tr : cp.theTransitions)
+                if (tr.theLabel.getNature() == NatureTransition.ASSIGN
+                    && !live.isLive(((AssignTransition)tr.theLabel).theAssign.getIdf(),
+                                    tr.theTarget)) {
+                    tr.theLabel = CondTransition.condTRUE;
+                    emptied.add(tr);
+                }
+        mergeSkips(emptied);
+        return emptied.size();
+    }
+
+    /**
+     * Merge the target of each emptied transition into its source, when
+     * it is the only transition of its source: the source takes the
+     * transitions of the target, and the transitions entering the target
+     * enter the source. The point named after the removed assignment
+     * disappears; the other points, and their names, are kept.
+     * @param emptied the transitions TRUE left by eliminateDeadStores
+     * @return the number of points removed
+     */
+    int mergeSkips(Set<Transition> emptied) {
+        // the point into which each removed point is merged
+        Map<ControlPoint, ControlPoint> merged = new HashMap<ControlPoint, ControlPoint>();
+        for (ControlPoint cp : theControlPoints) {
+            if (merged.containsKey(cp)) continue;
+            while (cp.theTransitions.size() == 1) {
+                Transition tr = cp.theTransitions.get(0);
+                ControlPoint t = tr.theTarget;
+                if (!emptied.contains(tr) || t == cp || t == entry || t == error
+                    || merged.containsKey(t))
+                    break;
+                cp.theTransitions = t.theTransitions;
+                merged.put(t, cp);
+                if (exit == t) exit = cp;
+            }
+        }
+        if (merged.isEmpty()) return 0;
+
+        for (ControlPoint cp : theControlPoints)
+            if (!merged.containsKey(cp))
+                for (Transition tr : cp.theTransitions) {
+                    ControlPoint t = tr.theTarget;
+                    while (merged.containsKey(t)) t = merged.get(t);
+                    tr.theTarget = t;
+                }
+        theControlPoints.removeIf(merged::containsKey);
+        return merged.size();
+    }
+
+    /**
+     * @return the control points in reverse postorder of a depth-first
+     * traversal from the entry, followed by the unreachable points
+     */
+    List<ControlPoint> reversePostorder() {
+        List<ControlPoint> post = new ArrayList<ControlPoint>();
+        Set<ControlPoint> visited = new HashSet<ControlPoint>();
+        // explicit stack of (point, index of the next transition to follow)
+        Deque<ControlPoint> stack = new ArrayDeque<ControlPoint>();
+        Deque<Integer> next = new ArrayDeque<Integer>();
+        stack.push(entry);
+        next.push(0);
+        visited.add(entry);
+        while (!stack.isEmpty()) {
+            ControlPoint cp = stack.peek();
+            int k = next.pop();
+            if (k < cp.theTransitions.size()) {
+                next.push(k + 1);
+                ControlPoint t = cp.theTransitions.get(k).theTarget;
+                if (visited.add(t)) {
+                    stack.push(t);
+                    next.push(0);
+                }
+            } else {
+                stack.pop();
+                post.add(cp);
+            }
+        }
+        Collections.reverse(post);
+        for (ControlPoint cp : theControlPoints)
+            if (!visited.contains(cp)) post.add(cp);
+        return post;
+    }
 
     public String toDotFile() {
         Iterator<ControlPoint> i = theControlPoints.iterator();
@@ -421,24 +674,13 @@ class ControlGraph {
     }
 
     // ======================================================================
-    // Constructors 
-
-    void addLast(ControlGraph g) {
-        theControlPoints.addAll(g.theControlPoints);
-        //exit.addCondTransition(CondTransition.condTRUE,g.entry);
-        exit.theTransitions.addAll(g.entry.theTransitions);
-        theControlPoints.remove(g.entry);
-        g.theControlPoints.forEach(cp->{
-            cp.theTransitions.forEach(cpt -> {
-                if (cpt.theTarget == g.entry){
-                    cpt.theTarget = exit;
-                }
-            });
-        });
-        exit = g.exit;
-
-        if (g.error != null) error = g.error;
-    }
+    // Constructors
+    //
+    // The graph is built by appending the instructions one after the
+    // other at its exit point, which becomes the entry point of the
+    // appended instruction. Every control point and every transition is
+    // created once and never moved, so that building the graph is linear
+    // in the size of the program.
 
     ControlGraph() {
         entry = new ControlPoint("Entry");
@@ -447,79 +689,129 @@ class ControlGraph {
         theControlPoints.add(entry);
     }
 
-    ControlGraph(AssertNode an) {
-        entry = new ControlPoint("before_asert " + an.toString() + " | ");
-        exit = new ControlPoint("after_assert " + an.toString() + " | ");
-        error = new ControlPoint("assert_error " + an.toString() + " | ");
-        entry.addCondTransition(new CondTransition(an.getExpr(), true), exit);
-        entry.addCondTransition(new CondTransition(an.getExpr(), false), error);
-        // error.
-        theControlPoints = new ArrayList<ControlPoint>();
-        theControlPoints.add(entry);
-        theControlPoints.add(error);
-        theControlPoints.add(exit);
+    /**
+     * Create a new control point and add it to the graph
+     */
+    ControlPoint newControlPoint(String subname) {
+        return newControlPoint(subname, null);
     }
 
-    // contructor for single-transition graph, made of a TRUE expression.
-    // to be used for the write expressions.
-    ControlGraph(WriteNode dummy) {
-        entry = new ControlPoint("before_write " + dummy.toString() + " | ");
-        exit = new ControlPoint("after_write " + dummy.toString() + " | ");
-        entry.addCondTransition(CondTransition.condTRUE, exit);
-        theControlPoints = new ArrayList<ControlPoint>();
-        theControlPoints.add(entry);
-        theControlPoints.add(exit);
+    ControlPoint newControlPoint(String subname, MiniLgNode what) {
+        ControlPoint cp = new ControlPoint(subname, what);
+        theControlPoints.add(cp);
+        return cp;
     }
 
-    ControlGraph(AffNode an) {
-        entry = new ControlPoint("before_assign " + an.toString() + " | ");
-        exit = new ControlPoint("after_assign " + an.toString() + " | ");
-        entry.addAssignTransition(new AssignTransition(an), exit);
-        theControlPoints = new ArrayList<ControlPoint>();
-        theControlPoints.add(entry);
-        theControlPoints.add(exit);
+    void appendAssert(AssertNode an) {
+        error = newControlPoint("assert_error", an);
+        ControlPoint after = newControlPoint("after_assert", an);
+        exit.addCondTransition(new CondTransition(an.getExpr(), true), after);
+        exit.addCondTransition(new CondTransition(an.getExpr(), false), error);
+        exit = after;
     }
 
-
-    // Various constructors for the conditional instructions and the loops
-    // A completer ...
-
-    ControlGraph(ExprNode cond, ControlGraph gthen, ControlGraph gelse) {
-        entry = new ControlPoint("if_entry " + cond.toString() + " | ");
-        exit = new ControlPoint("if_exit " + cond.toString() + " | ");
-
-        theControlPoints = new ArrayList<ControlPoint>();
-        theControlPoints.add(entry);
-        theControlPoints.addAll(gthen.theControlPoints);
-        if (gelse != null)
-            theControlPoints.addAll(gelse.theControlPoints);
-        theControlPoints.add(exit);
-
-        if (gelse != null)
-            this.generateCondition(cond, entry, gthen.entry, gelse.entry, theControlPoints);
-        else
-            this.generateCondition(cond, entry, gthen.entry, exit, theControlPoints);
-
-        gthen.exit.addCondTransition(CondTransition.condTRUE, exit);
-
-        if (gelse != null)
-            gelse.exit.addCondTransition(CondTransition.condTRUE, exit);
-
+    // single transition, made of a TRUE expression.
+    // to be used for the write expressions.
+    void appendWrite(WriteNode dummy) {
+        ControlPoint after = newControlPoint("after_write", dummy);
+        exit.addCondTransition(new CondTransition(dummy), after);
+        exit = after;
     }
 
-    ControlGraph(ExprNode cond, ControlGraph gbody) {
-        entry = new ControlPoint("while_entry " + cond.toString() + " | ");
-        exit = new ControlPoint("while_exit " + cond.toString() + " | ");
-
+    void appendAssign(AffNode an) {
+        ControlPoint after = newControlPoint("after_assign", an);
+        exit.addAssignTransition(new AssignTransition(an), after);
+        exit = after;
+    }
 
-        theControlPoints = new ArrayList<ControlPoint>();
-        theControlPoints.add(entry);
-        theControlPoints.addAll(gbody.theControlPoints);
+    /**
+     * Append a conditional instruction
+     * @param gelse the else part, may be null
+     */
+    void appendCond(ExprNode cond, InstsNode gthen, InstsNode gelse) {
+        Branch b = beginCond(cond);
+        gthen.appendControlGraph(this);
+        if (gelse != null) {
+            beginElse(b);
+            gelse.appendControlGraph(this);
+        }
+        endCond(b);
+    }
 
-        this.generateCondition(cond, entry, gbody.entry, exit, theControlPoints);
-        gbody.exit.addCondTransition(CondTransition.condTRUE, entry);
+    /**
+     * Append a loop; the current exit point is the head of the loop
+     */
+    void appendWhile(ExprNode cond, InstsNode gbody) {
+        Branch b = beginWhile(cond);
+        gbody.appendControlGraph(this);
+        endWhile(b);
+    }
 
-        theControlPoints.add(exit);
+    /**
+     * A conditional or a loop being appended: its parts are appended
+     * between begin and end, so that they may be appended as they are
+     * parsed (see CfgParser)
+     */
+    static class Branch {
+        ExprNode cond;
+
+        /** The point where the condition is tested, the point after the
+         *  instruction, and the entries of the parts (the body for a
+         *  loop, no else part: the point after the instruction) */
+        ControlPoint begin, join, thenEntry, elseEntry;
+
+        /** The exit of the then part, once the else part is begun */
+        ControlPoint thenExit;
+    }
+
+    /** Begin a conditional: its then part is appended next */
+    Branch beginCond(ExprNode cond) {
+        Branch b = new Branch();
+        b.cond = cond;
+        b.begin = exit;
+        b.join = new ControlPoint("if_exit", cond);
+        b.thenEntry = newControlPoint("Entry");
+        b.elseEntry = b.join;
+        exit = b.thenEntry;
+        return b;
+    }
+
+    /** Begin the else part of a conditional, after its then part */
+    void beginElse(Branch b) {
+        b.thenExit = exit;
+        b.elseEntry = newControlPoint("Entry");
+        exit = b.elseEntry;
+    }
+
+    /** End a conditional, after its last part */
+    void endCond(Branch b) {
+        ControlPoint thenExit = b.thenExit == null ? exit : b.thenExit;
+        ControlPoint elseExit = b.thenExit == null ? null : exit;
+        theControlPoints.add(b.join);
+        this.generateCondition(b.cond, b.begin, b.thenEntry, b.elseEntry, theControlPoints);
+        thenExit.addCondTransition(CondTransition.condTRUE, b.join);
+        if (elseExit != null)
+            elseExit.addCondTransition(CondTransition.condTRUE, b.join);
+        exit = b.join;
+    }
+
+    /** Begin a loop: its body is appended next */
+    Branch beginWhile(ExprNode cond) {
+        Branch b = new Branch();
+        b.cond = cond;
+        b.begin = exit;
+        b.join = new ControlPoint("while_exit", cond);
+        b.thenEntry = newControlPoint("Entry");
+        exit = b.thenEntry;
+        return b;
+    }
+
+    /** End a loop, after its body */
+    void endWhile(Branch b) {
+        this.generateCondition(b.cond, b.begin, b.thenEntry, b.join, theControlPoints);
+        exit.addCondTransition(CondTransition.condTRUE, b.begin);
+        theControlPoints.add(b.join);
+        exit = b.join;
     }
 
 
@@ -0,0 +1,138 @@
+/**
+ * Closed-form execution of the counting loops (see WhileNode).
+ * <p>
+ * A counting loop has a guard a &lt; b (or b &gt; a), where a and b
+ * are integer variables or constants, and a body made only of updates
+ * x := x + c, x := c + x or x := x - c (c a constant). After k
+ * iterations each updated variable has grown by k times the sum of its
+ * steps, so that the number of iterations, and the final values, are
+ * computed without iterating.
+ * <p>
+ * The closed form is exact only if the variables of the guard do not
+ * overflow during the loop: the computation is made in long, and when
+ * the guard variables would leave the range of int, or when the guard
+ * never becomes false (the loop ends by overflow, if ever), run fails
+ * and the loop must be executed normally. The other variables wrap
+ * around as they would do one iteration at a time.
+ */
+class CountingLoop {
+
+    /** The slots of the updated variables, and the sum of their steps */
+    private int slots[] = new int[4];
+    private long steps[] = new long[4];
+    private int count = 0;
+
+    /** The sides of the guard left &lt; right: slots, or -1 for a
+     *  constant */
+    private int left = -1, right = -1;
+
+    /** The constants of the guard */
+    private int leftValue, rightValue;
+
+    private CountingLoop() {}
+
+    /**
+     * The closed form of a loop, null if the loop is not a counting
+     * loop (or if its guard does not depend on its body)
+     * @param cond the condition, resolved
+     * @param body the body, resolved
+     */
+    static CountingLoop recognize(ExprNode cond, InstsNode body) {
+        if (cond.theKind != ExprNode.Kind.BINARY) return null;
+        OperatorKind op = cond.operator.theOp;
+        if (op != OperatorKind.INF && op != OperatorKind.SUP) return null;
+        ExprNode a = op == OperatorKind.INF ? cond.fg : cond.fd;
+        ExprNode b = op == OperatorKind.INF ? cond.fd : cond.fg;
+        CountingLoop L = new CountingLoop();
+        if (a.theKind == ExprNode.Kind.IDF) L.left = a.idf.slot;
+        else if (a.theKind == ExprNode.Kind.INTCONST) L.leftValue = a.value;
+        else return null;
+        if (b.theKind == ExprNode.Kind.IDF) L.right = b.idf.slot;
+        else if (b.theKind == ExprNode.Kind.INTCONST) L.rightValue = b.value;
+        else return null;
+        if (!body.addAffineSteps(L)) return null;
+        if (L.step(L.left) == L.step(L.right)) return null;
+        return L;
+    }
+
+    /**
+     * Add the update of an assignment, if it has the form x := x + c,
+     * x := c + x or x := x - c
+     * @return false for any other assignment
+     */
+    boolean addUpdate(Idf x, ExprNode e) {
+        if (x.type != Type.INT || e == null || e.theKind != ExprNode.Kind.BINARY)
+            return false;
+        ExprNode a = e.fg, b = e.fd;
+        switch (e.operator.theOp) {
+        case PLUS:
+            if (same(a, x) && b.theKind == ExprNode.Kind.INTCONST)
+                return add(x.slot, b.value);
+            if (same(b, x) && a.theKind == ExprNode.Kind.INTCONST)
+                return add(x.slot, a.value);
+            return false;
+        case MOINS:
+            if (same(a, x) && b.theKind == ExprNode.Kind.INTCONST)
+                return add(x.slot, - (long)b.value);
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /** True if an expression is the integer variable x */
+    private static boolean same(ExprNode e, Idf x) {
+        return e.theKind == ExprNode.Kind.IDF && e.idf.type == Type.INT
+            && e.idf.slot == x.slot;
+    }
+
+    private boolean add(int slot, long d) {
+        for (int i = 0; i < count; i++)
+            if (slots[i] == slot) {
+                steps[i] += d;
+                return true;
+            }
+        if (count == slots.length) {
+            slots = java.util.Arrays.copyOf(slots, 2 * count);
+            steps = java.util.Arrays.copyOf(steps, 2 * count);
+        }
+        slots[count] = slot;
+        steps[count++] = d;
+        return true;
+    }
+
+    /** The step of a variable in one iteration (0 for a constant) */
+    private long step(int slot) {
+        for (int i = 0; i < count; i++)
+            if (slots[i] == slot) return steps[i];
+        return 0;
+    }
+
+    /**
+     * Execute the loop in closed form
+     * @return false if the loop must be executed normally (nothing has
+     *  been changed then)
+     */
+    boolean run(EnvDynamique ED) {
+        long l = left >= 0 ? ED.intAt(left) : leftValue;
+        long r = right >= 0 ? ED.intAt(right) : rightValue;
+        if (l >= r) return true;
+        // the distance r - l decreases by s at each iteration
+        long s = step(left) - step(right);
+        if (s <= 0) return false;
+        long n = (r - l + s - 1) / s;
+        try {
+            long lf = Math.addExact(l, Math.multiplyExact(step(left), n));
+            long rf = Math.addExact(r, Math.multiplyExact(step(right), n));
+            if (lf != (int)lf || rf != (int)rf) return false;
+        }
+        catch (ArithmeticException e) {
+            return false;
+        }
+        // modulo 2^32, as one iteration at a time
+        int k = (int)n;
+        for (int i = 0; i < count; i++)
+            ED.setIntAt(slots[i], ED.intAt(slots[i]) + k * (int)steps[i]);
+        return true;
+    }
+}
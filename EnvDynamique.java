@@ -3,31 +3,56 @@ import java.util.*;
 
 /**
  * Dynamic environment (for executing the program);
+ * The values are stored in two frames, one for the integer
+ * variables and one for the boolean variables, indexed by the slots
+ * computed by the resolution pass (see Idf.resolve)
  */
 
 class EnvDynamique {
     
-    /** The association between identifiers and values */
-    private Map<Idf, Value> values;
+    /** The static environment, for the names of the variables, null
+     *  if they are not known */
+    private EnvStatique E;
+
+    /** The values of the integer variables */
+    private int ints[];
+
+    /** The values of the boolean variables */
+    private boolean bools[];
 
     /** External printable form */
-    public String toString() { return values.toString(); }
+    public String toString() { 
+        if (E == null)
+            return Arrays.toString(ints) + Arrays.toString(bools);
+        String s = "{";
+        for (Idf i : E.getIdfSet()) {
+            if (s.length() > 1) s += ", ";
+            s += i + "=" + (E.getType(i) == Type.INT ? ints[E.slotOf(i)] 
+                            : bools[E.slotOf(i)]);
+        }
+        return s + "}";
+    }
     
-    /** Constructor of an empty environment */
-    EnvDynamique() { values  = new HashMap<Idf, Value>(); }
-
     /** Constructor from a static environment 
      * @param envStat: a static environment (should be a singleton)
      * @return an elementary dynamic environment in which all the
-     *  variables declared in envStat are associated with the
-     *  "undefined" value
+     *  variables declared in envStat are initialized, to 0 for the 
+     *  integers and to true for the booleans
      */
     EnvDynamique(EnvStatique envStat) {
-        values  = new HashMap<Idf, Value>();        
-        Iterator<Idf> i = envStat.getIdfSet().iterator();
-        while(i.hasNext()) {
-            values.put(i.next(), new Value());
-        }
+        E = envStat;
+        ints = new int[envStat.numberOfSlots(Type.INT)];
+        bools = new boolean[envStat.numberOfSlots(Type.BOOL)];
+        Arrays.fill(bools, true);
+    }
+    
+    /** Constructor from the numbers of slots, without the names of the
+     *  variables (see FlatTree): the variables are initialized to 0 and
+     *  true */
+    EnvDynamique(int numberOfInts, int numberOfBools) {
+        ints = new int[numberOfInts];
+        bools = new boolean[numberOfBools];
+        Arrays.fill(bools, true);
     }
     
     /** Set the value of an identifier 
@@ -35,7 +60,8 @@ class EnvDynamique {
      * @param v: the new value 
      */
     public void set(Idf i, Value v) {
-        values.put(i, v);
+        if (v.isBool()) bools[i.slot] = v.boolValue();
+        else ints[i.slot] = v.intValue();
     }
 
     /** get the value of an identifier
@@ -43,10 +69,33 @@ class EnvDynamique {
      * @return the value
      */
     public Value get(Idf i) {
-        return values.get(i);
+        if (i.type == Type.BOOL) return new Value(bools[i.slot]);
+        return new Value(ints[i.slot]);
     }
 
+    /** get the value of an integer identifier */
+    public int getInt(Idf i) { return ints[i.slot]; }
+
+    /** set the value of an integer identifier */
+    public void setInt(Idf i, int v) { ints[i.slot] = v; }
+
+    /** get the value of a boolean identifier */
+    public boolean getBool(Idf i) { return bools[i.slot]; }
+
+    /** set the value of a boolean identifier */
+    public void setBool(Idf i, boolean v) { bools[i.slot] = v; }
+
+    /** get the value of the integer variable at a slot */
+    int intAt(int slot) { return ints[slot]; }
+
+    /** set the value of the integer variable at a slot */
+    void setIntAt(int slot, int v) { ints[slot] = v; }
+
+    /** get the value of the boolean variable at a slot */
+    boolean boolAt(int slot) { return bools[slot]; }
 
+    /** set the value of the boolean variable at a slot */
+    void setBoolAt(int slot, boolean v) { bools[slot] = v; }
 }
 
 /**
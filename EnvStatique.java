@@ -8,6 +8,13 @@ class Idf {
     
     /** The lexical token corresponding to the identifier */
     private Token ti;
+
+    /** The type of the identifier, set by the resolution pass */
+    Type type;
+
+    /** The rank of the identifier in the frame of its type (see
+     *  EnvDynamique), set by the resolution pass; -1 if not resolved */
+    int slot = -1;
     
     /** Constructor from a token */    
     Idf(Token t) {
@@ -19,6 +26,11 @@ class Idf {
         return ti.toString();
     }
 
+    /** The token of the identifier */
+    Token token() {
+        return ti;
+    }
+
     /** the begin line associated with the token */
     public int beginLine() {
         return ti.beginLine;
@@ -38,6 +50,14 @@ class Idf {
         return (o instanceof Idf)
             &&(((Idf) o).ti.image.equals(ti.image));
     }
+
+    /** Resolution: copy the type and the slot of the declaration
+     * @param E the static environment where the identifier is declared
+     */
+    void resolve(EnvStatique E) {
+        type = E.getType(this);
+        slot = E.slotOf(this);
+    }
 }
 
 /**
@@ -48,14 +68,48 @@ enum Type { INT, BOOL };
 class EnvStatique {
     private Map<Idf, Type> env;
 
+    /** The slots: the integer (resp. boolean) variables are numbered
+     *  0, 1, ... in the order of their declarations */
+    private Map<Idf, Integer> slots;
+
+    /** The number of integer (resp. boolean) variables */
+    private int numberOfInts = 0, numberOfBools = 0;
+
+    /** The number of write instructions (see newWriteSite) */
+    private int numberOfWriteSites = 0;
+
     public EnvStatique() {
         env = new HashMap<Idf, Type>();
+        slots = new HashMap<Idf, Integer>();
     }
 
     public void set(Idf i, Type t) {
+        if (!env.containsKey(i))
+            slots.put(i, t == Type.INT ? numberOfInts++ : numberOfBools++);
         env.put(i, t);
     }
 
+    /** the slot of a declared identifier, in the frame of its type */
+    public int slotOf(Idf i) {
+        return slots.get(i);
+    }
+
+    /** the number of slots for a type */
+    public int numberOfSlots(Type t) {
+        return t == Type.INT ? numberOfInts : numberOfBools;
+    }
+
+    /** a number for a write instruction: 0, 1, ... in the order of
+     *  the resolution */
+    public int newWriteSite() {
+        return numberOfWriteSites++;
+    }
+
+    /** the number of write instructions */
+    public int numberOfWriteSites() {
+        return numberOfWriteSites;
+    }
+
     public boolean exists(Idf i) {
         return env.containsKey(i);
     }
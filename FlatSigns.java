@@ -0,0 +1,419 @@
+import java.util.*;
+
+
+/**
+ * The sign analysis on the flat form of a program (see FlatTree), for
+ * the runs which drop the tree (see LgBatch -flat).
+ * <p>
+ * The control graph is built from the nodes as ControlGraph builds it
+ * from the tree, with the same points in the same order, and stored as
+ * in CompactControlGraph: the points are the integers 0 .. n-1, the
+ * transitions leaving p are the ranks e in succ[p] .. succ[p+1]-1. The
+ * label of a transition is a node of the flat form: an assignment, a
+ * read, P, or a condition with its sense; -1 for a transition TRUE. The
+ * fix-point is computed by the same worklist as
+ * ControlGraph.computeAbstractSignsWorklist, so that the signs are the
+ * same; the integer variables are indexed by their slots.
+ */
+class FlatSigns {
+
+    private static final Operator INF = new Operator(LgConstants.INF),
+        SUP = new Operator(LgConstants.SUP);
+
+    private final FlatTree f;
+
+    /** True if the abstract values are PackedSignVectors */
+    private final boolean packedSigns;
+
+    /** number of control points */
+    int numberOfPoints;
+
+    /** the entry and error points; error is -1 if there is none */
+    final int entry = 0;
+    int error = -1;
+
+    /** the forward edges */
+    int succ[];
+    int source[];
+    int target[];
+    int label[];
+    boolean sense[];
+
+    /** the reverse edges: the transitions entering p are edge[k] for k
+     *  in pred[p] .. pred[p+1]-1, in the order of their sources */
+    int pred[];
+    int edge[];
+
+    /** the abstract values, indexed by the points, after
+     *  computeAbstractSigns */
+    private AbstractSignVector theOld[], theNew[];
+
+    /**
+     * Build the control graph of a flat form
+     * @param packed true for PackedSignVectors, false for SignVectors
+     */
+    FlatSigns(FlatTree f, boolean packed) {
+        this.f = f;
+        packedSigns = packed;
+        exit = point();
+        list(exit);
+        sequence(f.first);
+        compress();
+    }
+
+    // ------------------------------- construction
+    //
+    // The points are numbered as they are created, then renumbered in
+    // the order in which ControlGraph adds them to theControlPoints
+    // (the exits of the conditionals and the loops are added after
+    // their parts).
+
+    private int exit;
+
+    /** number of points created, and listed */
+    private int created = 0, listed = 0;
+    private int position[] = new int[16];
+
+    /** the transitions, by creation numbers, in the order of creation */
+    private int edges = 0;
+    private int from[] = new int[16], to[] = new int[16], by[] = new int[16];
+    private boolean taken[] = new boolean[16];
+
+    private int point() {
+        if (created == position.length)
+            position = Arrays.copyOf(position, 2 * created);
+        return created++;
+    }
+
+    private void list(int p) {
+        position[p] = listed++;
+    }
+
+    /** A new point, listed at once */
+    private int listedPoint() {
+        int p = point();
+        list(p);
+        return p;
+    }
+
+    private void transition(int s, int t, int n, boolean b) {
+        if (edges == from.length) {
+            from = Arrays.copyOf(from, 2 * edges);
+            to = Arrays.copyOf(to, 2 * edges);
+            by = Arrays.copyOf(by, 2 * edges);
+            taken = Arrays.copyOf(taken, 2 * edges);
+        }
+        from[edges] = s;
+        to[edges] = t;
+        by[edges] = n;
+        taken[edges] = b;
+        edges++;
+    }
+
+    private void sequence(int n) {
+        for (; n >= 0; n = f.next[n])
+            instruction(n);
+    }
+
+    /** See the append functions of ControlGraph */
+    private void instruction(int n) {
+        int after;
+        switch (f.kind[n]) {
+        case FlatTree.SETINT:
+        case FlatTree.SETBOOL:
+        case FlatTree.P:
+        case FlatTree.READ:
+            after = listedPoint();
+            transition(exit, after, n, true);
+            exit = after;
+            break;
+        case FlatTree.WRITEINT:
+        case FlatTree.WRITEBOOL:
+            after = listedPoint();
+            transition(exit, after, -1, true);
+            exit = after;
+            break;
+        case FlatTree.ASSERT:
+            error = listedPoint();
+            after = listedPoint();
+            transition(exit, after, f.a[n], true);
+            transition(exit, error, f.a[n], false);
+            exit = after;
+            break;
+        case FlatTree.IF: {
+            int begin = exit, join = point();
+            int thenEntry = listedPoint(), elseEntry = join;
+            exit = thenEntry;
+            sequence(f.b[n]);
+            int thenExit = exit, elseExit = -1;
+            if (f.c[n] != FlatTree.NOELSE) {
+                elseEntry = listedPoint();
+                exit = elseEntry;
+                sequence(f.c[n]);
+                elseExit = exit;
+            }
+            list(join);
+            condition(f.a[n], begin, thenEntry, elseEntry);
+            transition(thenExit, join, -1, true);
+            if (elseExit >= 0)
+                transition(elseExit, join, -1, true);
+            exit = join;
+            break;
+        }
+        case FlatTree.WHILE: {
+            int begin = exit, join = point();
+            int body = listedPoint();
+            exit = body;
+            sequence(f.b[n]);
+            condition(f.a[n], begin, body, join);
+            transition(exit, begin, -1, true);
+            list(join);
+            exit = join;
+            break;
+        }
+        default:
+            throw new InternalException("Bad node " + f.kind[n] + " at " + n);
+        }
+    }
+
+    /** See ControlGraph.generateCondition */
+    private void condition(int e, int begin, int tt, int ff) {
+        int aux;
+        switch (f.kind[e]) {
+        case FlatTree.AND:
+            aux = listedPoint();
+            condition(f.a[e], begin, aux, ff);
+            condition(f.b[e], aux, tt, ff);
+            break;
+        case FlatTree.OR:
+            aux = listedPoint();
+            condition(f.a[e], begin, tt, aux);
+            condition(f.b[e], aux, tt, ff);
+            break;
+        case FlatTree.NOT:
+            condition(f.a[e], begin, ff, tt);
+            break;
+        default:
+            transition(begin, tt, e, true);
+            transition(begin, ff, e, false);
+        }
+    }
+
+    /** Renumber the points, and store the transitions in rows */
+    private void compress() {
+        numberOfPoints = listed;
+        if (error >= 0) error = position[error];
+        succ = new int[numberOfPoints + 1];
+        source = new int[edges];
+        target = new int[edges];
+        label = new int[edges];
+        sense = new boolean[edges];
+        for (int e = 0; e < edges; e++)
+            succ[position[from[e]] + 1]++;
+        for (int p = 0; p < numberOfPoints; p++)
+            succ[p + 1] += succ[p];
+        int fill[] = Arrays.copyOf(succ, numberOfPoints);
+        for (int e = 0; e < edges; e++) {
+            int k = fill[position[from[e]]]++;
+            source[k] = position[from[e]];
+            target[k] = position[to[e]];
+            label[k] = by[e];
+            sense[k] = taken[e];
+        }
+        from = to = by = position = null;
+        taken = null;
+
+        // a transition enters its target once per source, in the order
+        // of the sources
+        pred = new int[numberOfPoints + 1];
+        edge = new int[edges];
+        for (int e = 0; e < edges; e++)
+            pred[target[e] + 1]++;
+        for (int p = 0; p < numberOfPoints; p++)
+            pred[p + 1] += pred[p];
+        fill = Arrays.copyOf(pred, numberOfPoints);
+        for (int e = 0; e < edges; e++)
+            edge[fill[target[e]]++] = e;
+    }
+
+    // ------------------------------- analysis
+
+    AbstractSignVector newSignVector(Sign s) {
+        if (packedSigns)
+            return new PackedSignVector(f.numberOfInts, s);
+        return new SignVector(f.numberOfInts, s);
+    }
+
+    boolean errorIsReachable() {
+        return error != -1 && !theOld[error].isBottom();
+    }
+
+    /**
+     * The sign analysis, with the same worklist algorithm as
+     * ControlGraph.computeAbstractSignsWorklist
+     * @return the number of transitions evaluated
+     */
+    int computeAbstractSigns() {
+        theOld = new AbstractSignVector[numberOfPoints];
+        theNew = new AbstractSignVector[numberOfPoints];
+        for (int p = 0; p < numberOfPoints; p++) {
+            theOld[p] = newSignVector(Sign.BOT);
+            theNew[p] = newSignVector(Sign.BOT);
+        }
+        theOld[entry] = newSignVector(Sign.TOP);
+
+        int order[] = reversePostorder();
+        int rank[] = new int[numberOfPoints];
+        for (int k = 0; k < numberOfPoints; k++)
+            rank[order[k]] = k;
+
+        PriorityQueue<Integer> worklist = new PriorityQueue<Integer>();
+        boolean queued[] = new boolean[numberOfPoints];
+        for (int k = 0; k < numberOfPoints; k++)
+            if (order[k] != entry) {
+                worklist.add(k);
+                queued[k] = true;
+            }
+
+        int evaluated = 0;
+        while (!worklist.isEmpty()) {
+            int k = worklist.poll();
+            queued[k] = false;
+            int p = order[k];
+
+            for (int i = pred[p]; i < pred[p + 1]; i++) {
+                apply(edge[i]);
+                evaluated++;
+            }
+
+            boolean changed = !theOld[p].equals(theNew[p]);
+            theOld[p] = theNew[p];
+            theNew[p] = newSignVector(Sign.BOT);
+            if (changed) {
+                for (int e = succ[p]; e < succ[p + 1]; e++) {
+                    int t = rank[target[e]];
+                    if (!queued[t] && target[e] != entry) {
+                        worklist.add(t);
+                        queued[t] = true;
+                    }
+                }
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * Accumulate the contribution of a transition in the new value of
+     * its target (see the computeAbstractSigns of the TransitionLabels)
+     */
+    private void apply(int e) {
+        AbstractSignVector s = theOld[source[e]];
+        AbstractValue v = s;
+        int n = label[e];
+        if (n >= 0) {
+            switch (f.kind[n]) {
+            case FlatTree.SETINT:
+                v = s.copyChangeAssign(f.a[n], newSignVector(sign(f.b[n], s)));
+                break;
+            case FlatTree.SETBOOL:
+                break;
+            case FlatTree.P:
+                v = s.copyChangeAssign(f.a[n], newSignVector(SignLattice.P(s.get(f.b[n]))));
+                break;
+            case FlatTree.READ:
+                v = s.copyChangeAssign(f.a[n], newSignVector(Sign.TOP));
+                break;
+            default:
+                v = condition(n, sense[e], s);
+            }
+        }
+        theNew[target[e]].union(v);
+    }
+
+    /**
+     * The values after a condition taken with a sense, refined if it is
+     * x # y or !(x # y), # being &lt; or &gt; (see ExprNode.getSimpleExpr)
+     */
+    private AbstractValue condition(int n, boolean neg, AbstractSignVector s) {
+        while (f.kind[n] == FlatTree.NOT) {
+            neg = !neg;
+            n = f.a[n];
+        }
+        if ((f.kind[n] != FlatTree.LT && f.kind[n] != FlatTree.GT)
+            || f.kind[f.a[n]] != FlatTree.INT || f.kind[f.b[n]] != FlatTree.INT)
+            return s;
+        return s.copyChangeCond(f.a[f.a[n]], f.a[f.b[n]],
+                                f.kind[n] == FlatTree.LT ? INF : SUP, neg);
+    }
+
+    /**
+     * The sign of an integer expression (see AssignTransition.signOfExpr)
+     * @throws InternalException if it is not an arithmetic expression
+     * without division
+     */
+    private Sign sign(int n, AbstractSignVector s) {
+        switch (f.kind[n]) {
+        case FlatTree.CONST:
+            return SignLattice.signOfConst(f.a[n]);
+        case FlatTree.INT:
+            return s.get(f.a[n]);
+        case FlatTree.ADD: case FlatTree.SUB: case FlatTree.MUL: case FlatTree.DIV:
+        case FlatTree.LT: case FlatTree.GT: case FlatTree.EQ:
+        case FlatTree.AND: case FlatTree.OR:
+            Sign s1 = sign(f.a[n], s);
+            Sign s2 = sign(f.b[n], s);
+            switch (f.kind[n]) {
+            case FlatTree.ADD: return SignLattice.plus(s1, s2);
+            case FlatTree.SUB: return SignLattice.minus(s1, s2);
+            case FlatTree.MUL: return SignLattice.mult(s1, s2);
+            case FlatTree.DIV:
+                throw new InternalException
+                    ("This should be a SIMPLE arithmetic expression");
+            default:
+                throw new InternalException
+                    ("This should be an arithmetic expression");
+            }
+        default:
+            throw new InternalException
+                ("This should be an arithmetic expression");
+        }
+    }
+
+    /**
+     * @return the points in reverse postorder of a depth-first traversal
+     * from the entry, followed by the unreachable points
+     */
+    int[] reversePostorder() {
+        int order[] = new int[numberOfPoints];
+        boolean visited[] = new boolean[numberOfPoints];
+        int stack[] = new int[numberOfPoints];
+        int next[] = new int[numberOfPoints];
+        int top = 0;
+        int post = numberOfPoints;
+        stack[0] = entry;
+        next[0] = succ[entry];
+        visited[entry] = true;
+        while (top >= 0) {
+            int p = stack[top];
+            if (next[top] < succ[p + 1]) {
+                int t = target[next[top]++];
+                if (!visited[t]) {
+                    visited[t] = true;
+                    top++;
+                    stack[top] = t;
+                    next[top] = succ[t];
+                }
+            } else {
+                order[--post] = p;
+                top--;
+            }
+        }
+        // the reachable points are in order[post ..]: move them first
+        int reachable = numberOfPoints - post;
+        System.arraycopy(order, post, order, 0, reachable);
+        int k = reachable;
+        for (int p = 0; p < numberOfPoints; p++)
+            if (!visited[p]) order[k++] = p;
+        return order;
+    }
+}
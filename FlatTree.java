@@ -0,0 +1,374 @@
+import java.util.*;
+
+
+/**
+ * The abstract tree of an analysed program, flattened into arrays
+ * (engine FLAT, see Session.engine), so that it is small and walked
+ * without following references from object to object.
+ * <p>
+ * Node n is kind[n] with the operands a[n], b[n], c[n]: a constant
+ * (the booleans are 0 and 1), a slot, an index in the table of strings,
+ * or another node. The nodes are in preorder: the first sub-expression
+ * of an expression is the next node. The instructions of a sequence are
+ * chained by next[n], -1 after the last one; a sequence is given by
+ * its first instruction, -1 if it is empty.
+ * <p>
+ * The flat form holds no reference to the tree, nor to its identifiers
+ * and tokens: only the numbers of slots, and the strings of the
+ * messages. Once flattened, the program may be dropped (see LgBatch
+ * -flat); the flat form is executed here, and analysed by FlatSigns.
+ */
+class FlatTree {
+
+    // ------------------------------- kinds, with their operands
+
+    /** CONST k */
+    static final byte CONST = 0;
+    /** INT s, BOOL s : the variable at slot s */
+    static final byte INT = 1, BOOL = 2;
+    /** NEG e, NOT e */
+    static final byte NEG = 3, NOT = 4;
+    /** ADD e f, and SUB, MUL, DIV, LT, GT, EQ, AND, OR */
+    static final byte ADD = 5, SUB = 6, MUL = 7, DIV = 8, LT = 9, GT = 10, EQ = 11,
+        AND = 12, OR = 13;
+    /** SETINT s e, SETBOOL s e : assignment of the variable at slot s */
+    static final byte SETINT = 14, SETBOOL = 15;
+    /** P s x : the variable at slot s := P(the one at slot x) */
+    static final byte P = 16;
+    /** READ s k : read the variable at slot s, named strings[k] */
+    static final byte READ = 17;
+    /** WRITEINT e, WRITEBOOL e */
+    static final byte WRITEINT = 18, WRITEBOOL = 19;
+    /** ASSERT e k : the assertion e, written strings[k] */
+    static final byte ASSERT = 20;
+    /** IF e then else : else is -1 for an empty else part, NOELSE
+     *  if there is none */
+    static final byte IF = 21;
+    /** WHILE e body l : l is the index of the closed form of the loop
+     *  in loops (see CountingLoop), -1 for none */
+    static final byte WHILE = 22;
+
+    /** The else part of an IF without one */
+    static final int NOELSE = -2;
+
+    /** Names of the kinds */
+    static final String NAMES[] = {
+        "CONST", "INT", "BOOL", "NEG", "NOT", "ADD", "SUB", "MUL", "DIV",
+        "LT", "GT", "EQ", "AND", "OR", "SETINT", "SETBOOL", "P", "READ",
+        "WRITEINT", "WRITEBOOL", "ASSERT", "IF", "WHILE" };
+
+    /** The number of operands of the kinds */
+    static final int OPERANDS[] = {
+        1, 1, 1, 1, 1, 2, 2, 2, 2,
+        2, 2, 2, 2, 2, 2, 2, 2, 2,
+        1, 1, 2, 3, 3 };
+
+    // ------------------------------- the program
+
+    final byte kind[];
+    final int a[], b[], c[], next[];
+
+    /** The first instruction */
+    final int first;
+
+    /** The names of the variables read, and the assertions */
+    final String strings[];
+
+    /** The closed forms of the counting loops */
+    final CountingLoop loops[];
+
+    /** The numbers of slots of the integer and boolean variables */
+    final int numberOfInts, numberOfBools;
+
+    FlatTree(byte kind[], int a[], int b[], int c[], int next[], int first,
+             String strings[], CountingLoop loops[],
+             int numberOfInts, int numberOfBools) {
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.next = next;
+        this.first = first;
+        this.strings = strings;
+        this.loops = loops;
+        this.numberOfInts = numberOfInts;
+        this.numberOfBools = numberOfBools;
+    }
+
+    /** The number of nodes */
+    int size() {
+        return kind.length;
+    }
+
+    /** Printable form: one node per line */
+    public String toString() {
+        String s = "";
+        for (int n = 0; n < kind.length; n++) {
+            s += n + ": " + NAMES[kind[n]] + " " + a[n];
+            if (OPERANDS[kind[n]] > 1) s += " " + b[n];
+            if (OPERANDS[kind[n]] > 2) s += " " + c[n];
+            if (kind[n] >= SETINT && next[n] >= 0) s += " -> " + next[n];
+            s += "\n";
+        }
+        return s;
+    }
+
+    // ------------------------------- execution
+
+    /**
+     * Execution, with the variables initialized to 0 and true
+     * @return the environment at the end of the execution
+     */
+    EnvDynamique run() {
+        EnvDynamique ED = new EnvDynamique(numberOfInts, numberOfBools);
+        execute(first, ED, Session.current().output);
+        return ED;
+    }
+
+    /** Execution of a sequence of instructions */
+    private void execute(int n, EnvDynamique ED, OutputSink out) {
+        for (; n >= 0; n = next[n]) {
+            switch (kind[n]) {
+            case SETINT:
+                ED.setIntAt(a[n], value(b[n], ED));
+                break;
+            case SETBOOL:
+                ED.setBoolAt(a[n], value(b[n], ED) != 0);
+                break;
+            case P: {
+                int t = ED.intAt(b[n]);
+                ED.setIntAt(a[n], t * t - (4 * t) + 1);
+                break;
+            }
+            case READ:
+                ED.setIntAt(a[n], ReadNode.readInt(strings[b[n]]));
+                break;
+            case WRITEINT:
+                out.writeInt(value(a[n], ED));
+                break;
+            case WRITEBOOL:
+                out.writeBool(value(a[n], ED) != 0);
+                break;
+            case ASSERT:
+                if (value(a[n], ED) == 0) out.assertionFailed(strings[b[n]]);
+                break;
+            case IF:
+                if (value(a[n], ED) != 0) execute(b[n], ED, out);
+                else execute(c[n], ED, out);
+                break;
+            case WHILE:
+                if (c[n] >= 0 && loops[c[n]].run(ED)) break;
+                while (value(a[n], ED) != 0) execute(b[n], ED, out);
+                break;
+            default:
+                throw new InternalException("Bad node " + kind[n] + " at " + n);
+            }
+        }
+    }
+
+    /**
+     * The value of an expression, 0 or 1 for a boolean. The constants
+     * and the variables, most of the operands, are read here, without
+     * a call of eval.
+     */
+    private int value(int n, EnvDynamique ED) {
+        switch (kind[n]) {
+        case CONST: return a[n];
+        case INT: return ED.intAt(a[n]);
+        default: return eval(n, ED);
+        }
+    }
+
+    private int eval(int n, EnvDynamique ED) {
+        switch (kind[n]) {
+        case CONST: return a[n];
+        case INT: return ED.intAt(a[n]);
+        case BOOL: return ED.boolAt(a[n]) ? 1 : 0;
+        case NEG: return - value(a[n], ED);
+        case NOT: return value(a[n], ED) ^ 1;
+        case ADD: return value(a[n], ED) + value(b[n], ED);
+        case SUB: return value(a[n], ED) - value(b[n], ED);
+        case MUL: return value(a[n], ED) * value(b[n], ED);
+        case DIV: return value(a[n], ED) / value(b[n], ED);
+        case LT: return value(a[n], ED) < value(b[n], ED) ? 1 : 0;
+        case GT: return value(a[n], ED) > value(b[n], ED) ? 1 : 0;
+        case EQ: return value(a[n], ED) == value(b[n], ED) ? 1 : 0;
+        case AND: return value(a[n], ED) == 0 ? 0 : value(b[n], ED);
+        case OR: return value(a[n], ED) != 0 ? 1 : value(b[n], ED);
+        default:
+            throw new InternalException("Bad node " + kind[n] + " at " + n);
+        }
+    }
+}
+
+
+/**
+ * Translation of an analysed block into its flat form.
+ * <p>
+ * The instructions call the functions here (see InstNode.flatten),
+ * which give the index of their node; the expressions are translated
+ * here.
+ */
+class FlatBuilder {
+
+    private byte kind[] = new byte[64];
+    private int a[] = new int[64], b[] = new int[64], c[] = new int[64];
+    private int next[] = new int[64];
+    private int size = 0;
+
+    /** The strings (names, assertions) */
+    private List<String> strings = new ArrayList<String>();
+
+    /** The closed forms of the loops */
+    private List<CountingLoop> loops = new ArrayList<CountingLoop>();
+
+    /**
+     * Translate a block
+     * @param E the static environment of the block
+     * @param insts the instructions, analysed and resolved
+     * @return the flat form of the block
+     */
+    static FlatTree build(EnvStatique E, InstsNode insts) {
+        FlatBuilder f = new FlatBuilder();
+        int first = insts.flatten(f);
+        return new FlatTree(Arrays.copyOf(f.kind, f.size), Arrays.copyOf(f.a, f.size),
+                            Arrays.copyOf(f.b, f.size), Arrays.copyOf(f.c, f.size),
+                            Arrays.copyOf(f.next, f.size), first,
+                            f.strings.toArray(new String[0]),
+                            f.loops.toArray(new CountingLoop[0]),
+                            E.numberOfSlots(Type.INT), E.numberOfSlots(Type.BOOL));
+    }
+
+    // ------------------------------- instructions
+
+    /**
+     * Chain the instructions of a sequence
+     * @param n their nodes, -1 for the instructions without one
+     * @return the first one, -1 for none
+     */
+    int sequence(int n[]) {
+        int first = -1, last = -1;
+        for (int i : n) {
+            if (i < 0) continue;
+            if (last < 0) first = i;
+            else next[last] = i;
+            last = i;
+        }
+        return first;
+    }
+
+    int assign(Idf x, ExprNode e) {
+        int n = node(x.type == Type.INT ? FlatTree.SETINT : FlatTree.SETBOOL);
+        return set(n, x.slot, expr(e), 0);
+    }
+
+    int p(Idf y, Idf x) {
+        return set(node(FlatTree.P), y.slot, x.slot, 0);
+    }
+
+    int read(Idf x) {
+        return set(node(FlatTree.READ), x.slot, string(x.toString()), 0);
+    }
+
+    int write(ExprNode e) {
+        int n = node(e.type == Type.BOOL ? FlatTree.WRITEBOOL : FlatTree.WRITEINT);
+        return set(n, expr(e), 0, 0);
+    }
+
+    int assertion(ExprNode e, String text) {
+        int n = node(FlatTree.ASSERT);
+        return set(n, expr(e), string(text), 0);
+    }
+
+    int cond(ExprNode e, InstsNode thenpart, InstsNode elsepart) {
+        int n = node(FlatTree.IF);
+        int x = expr(e), y = thenpart.flatten(this);
+        return set(n, x, y, elsepart == null ? FlatTree.NOELSE : elsepart.flatten(this));
+    }
+
+    /** @param counting the closed form of the loop, may be null */
+    int loop(ExprNode e, InstsNode body, CountingLoop counting) {
+        int n = node(FlatTree.WHILE);
+        int x = expr(e), y = body.flatten(this), l = -1;
+        if (counting != null) {
+            l = loops.size();
+            loops.add(counting);
+        }
+        return set(n, x, y, l);
+    }
+
+    // ------------------------------- expressions
+
+    private int expr(ExprNode e) {
+        int n;
+        switch (e.theKind) {
+        case INTCONST:
+            return set(node(FlatTree.CONST), e.value, 0, 0);
+        case BOOLCONST:
+            return set(node(FlatTree.CONST),
+                       e.operator.theOp == OperatorKind.TRUE ? 1 : 0, 0, 0);
+        case IDF:
+            n = node(e.idf.type == Type.INT ? FlatTree.INT : FlatTree.BOOL);
+            return set(n, e.idf.slot, 0, 0);
+        case UNARY:
+            switch (e.operator.theOp) {
+            case PLUS: return expr(e.fg);
+            case MOINS: n = node(FlatTree.NEG); break;
+            case NOT: n = node(FlatTree.NOT); break;
+            default: throw new InternalException(" ! Switch case unhandled ");
+            }
+            return set(n, expr(e.fg), 0, 0);
+        case BINARY:
+            switch (e.operator.theOp) {
+            case PLUS: n = node(FlatTree.ADD); break;
+            case MOINS: n = node(FlatTree.SUB); break;
+            case MULT: n = node(FlatTree.MUL); break;
+            case DIV: n = node(FlatTree.DIV); break;
+            case INF: n = node(FlatTree.LT); break;
+            case SUP: n = node(FlatTree.GT); break;
+            case EGAL: n = node(FlatTree.EQ); break;
+            case AND: n = node(FlatTree.AND); break;
+            case OR: n = node(FlatTree.OR); break;
+            default: throw new InternalException(" ! Switch case unhandled ");
+            }
+            int x = expr(e.fg);
+            return set(n, x, expr(e.fd), 0);
+        default:
+            throw new InternalException(" ! Switch case unhandled ");
+        }
+    }
+
+    // ------------------------------- nodes, strings
+
+    /** A new node, whose operands are set once its children are added */
+    private int node(byte k) {
+        if (size == kind.length) {
+            int m = 2 * size;
+            kind = Arrays.copyOf(kind, m);
+            a = Arrays.copyOf(a, m);
+            b = Arrays.copyOf(b, m);
+            c = Arrays.copyOf(c, m);
+            next = Arrays.copyOf(next, m);
+        }
+        kind[size] = k;
+        next[size] = -1;
+        return size++;
+    }
+
+    /**
+     * Set the operands of a node. They are computed before: adding the
+     * children may replace the arrays.
+     * @return the node
+     */
+    private int set(int n, int x, int y, int z) {
+        a[n] = x;
+        b[n] = y;
+        c[n] = z;
+        return n;
+    }
+
+    private int string(String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+}
@@ -11,6 +11,17 @@ abstract class AbstractValue {
 }
 
 
+/**
+ * The correspondence between the integer variables and their ranks in
+ * the vectors of signs, as known by a control graph
+ */
+interface VariableIndexing {
+    int indexOfIdf(Idf i);
+    int getNumberOfIntIdfs();
+    AbstractSignVector newSignVector(Sign s);
+}
+
+
 /**
  * Information attached to the control points for the static analysis 
  * The variables are identified by their names,
@@ -20,7 +31,7 @@ abstract class AbstractValue {
 class InfoAttached {
 
     /** the graph to which this info is attached */ 
-    ControlGraph  theCG; 
+    VariableIndexing theCG; 
     AbstractValue theOld;
     AbstractValue theNew;
 
@@ -33,7 +44,7 @@ class InfoAttached {
      * @param initOld initNew the initial value of the old (resp. new) 
      *        abstract value (either TOP or BOT)
      */
-    InfoAttached(ControlGraph cg,
+    InfoAttached(VariableIndexing cg,
 		 AbstractValue initOld,
 		 AbstractValue initNew) { 
 	theCG = cg;
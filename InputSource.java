@@ -0,0 +1,204 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Where the read instructions take their values (see Session.input).
+ * <p>
+ * An input source delivers integers one at a time. The sources of
+ * text accept integers separated by any white space (not only one per
+ * line). At the end of the input, readInt throws a
+ * NoSuchElementException; a token which is not an integer gives a
+ * NumberFormatException.
+ */
+abstract class InputSource {
+
+    /**
+     * The next integer
+     * @param name the name of the variable read, for the prompt
+     */
+    abstract int readInt(String name);
+
+    /** True if the source writes a prompt before each read */
+    boolean prompts() { return false; }
+
+    /** The standard input, shared by all the sessions */
+    private static InputSource stdin;
+
+    /**
+     * The standard input, buffered, with a prompt for each read
+     */
+    static synchronized InputSource stdin() {
+        if (stdin == null)
+            stdin = new TextInputSource(System.in, true);
+        return stdin;
+    }
+
+    /**
+     * A text file of integers, mapped in memory
+     */
+    static InputSource mappedFile(Path file) throws IOException {
+        return new TextInputSource(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * A stream of integers in binary, 4 bytes each, big-endian (as
+     * written by DataOutputStream.writeInt)
+     */
+    static InputSource binary(InputStream in) {
+        return new BinaryInputSource(in);
+    }
+
+    /**
+     * The integers of an array, in order
+     */
+    static InputSource array(int values[]) {
+        return new ArrayInputSource(values);
+    }
+}
+
+
+/**
+ * Integers in text, from a stream (through a buffer) or from a mapped
+ * file (through a window moving along the file)
+ */
+class TextInputSource extends InputSource {
+
+    /** Size of the buffer, or of the window */
+    private static final int SIZE = 1 << 16;
+
+    /** The stream, null for a file */
+    private InputStream in;
+
+    /** The file, null for a stream, and the position of the window */
+    private FileChannel file;
+    private long position = 0;
+
+    /** The current bytes */
+    private ByteBuffer buffer;
+
+    /** True if a prompt is written before each read */
+    private boolean prompt;
+
+    TextInputSource(InputStream in, boolean prompt) {
+        this.in = in;
+        this.prompt = prompt;
+        buffer = ByteBuffer.allocate(SIZE);
+        buffer.limit(0);
+    }
+
+    TextInputSource(FileChannel file) {
+        this.file = file;
+        buffer = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Get more bytes, when the buffer has been consumed
+     * @return false at the end of the input
+     */
+    private boolean refill() {
+        try {
+            if (in != null) {
+                int n = in.read(buffer.array());
+                if (n <= 0) return false;
+                buffer.position(0);
+                buffer.limit(n);
+                return true;
+            }
+            long size = file.size();
+            if (position >= size) {
+                file.close();
+                return false;
+            }
+            long length = Math.min(size - position, Integer.MAX_VALUE);
+            buffer = file.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** The next byte, -1 at the end of the input */
+    private int next() {
+        if (!buffer.hasRemaining() && !refill()) return -1;
+        return buffer.get();
+    }
+
+    boolean prompts() { return prompt; }
+
+    int readInt(String name) {
+        if (prompt) System.out.print("... read " + name + " (INT) : ");
+        int c = next();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+            c = next();
+        if (c == -1)
+            throw new NoSuchElementException("No more input for " + name);
+        boolean negative = c == '-';
+        if (c == '-' || c == '+') c = next();
+        if (c < '0' || c > '9')
+            throw new NumberFormatException("Not an integer for " + name);
+        long v = 0;
+        while (c >= '0' && c <= '9') {
+            v = 10 * v + (c - '0');
+            if (v > 1L + Integer.MAX_VALUE)
+                throw new NumberFormatException("Integer too large for " + name);
+            c = next();
+        }
+        if (c != -1 && c != ' ' && c != '\n' && c != '\r' && c != '\t')
+            throw new NumberFormatException("Not an integer for " + name);
+        if (negative) v = -v;
+        if (v > Integer.MAX_VALUE)
+            throw new NumberFormatException("Integer too large for " + name);
+        return (int)v;
+    }
+}
+
+
+/**
+ * Integers in binary, 4 bytes each, big-endian
+ */
+class BinaryInputSource extends InputSource {
+
+    private DataInputStream in;
+
+    BinaryInputSource(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    int readInt(String name) {
+        try {
+            return in.readInt();
+        }
+        catch (EOFException e) {
+            throw new NoSuchElementException("No more input for " + name);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+
+/**
+ * Integers from an array in memory
+ */
+class ArrayInputSource extends InputSource {
+
+    private final int values[];
+    private int next = 0;
+
+    ArrayInputSource(int values[]) {
+        this.values = values;
+    }
+
+    int readInt(String name) {
+        if (next == values.length)
+            throw new NoSuchElementException("No more input for " + name);
+        return values[next++];
+    }
+}
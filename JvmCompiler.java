@@ -0,0 +1,527 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+
+/**
+ * A program compiled into a class of the JVM (engine JIT, see
+ * Session.engine).
+ */
+interface CompiledProgram {
+
+    /**
+     * Execution, with the variables initialized to 0 and true
+     * @return the number of assertions that have failed
+     */
+    int run();
+}
+
+
+/**
+ * Translation of an analysed block into a hidden class of the JVM,
+ * whose method run executes the block: the variables are the local
+ * variables of run (the booleans as ints, 1 for true), the loops are
+ * loops of the JVM, and HotSpot optimizes the program as any Java
+ * code.
+ * <p>
+ * The class file is written by hand, in version 49, which does not
+ * need stack map frames. The instructions call the compileX functions
+ * (see InstNode.compileJvm), the expressions are translated here.
+ * When a block cannot be compiled (the method would be too large, or
+ * the class is refused by the JVM), compile returns null and the
+ * block is executed by the tree interpreter.
+ */
+class JvmCompiler {
+
+    /** A block that cannot be compiled */
+    static class UnsupportedException extends RuntimeException {
+        static final long serialVersionUID = 42L;
+        UnsupportedException(String m) { super(m); }
+    }
+
+    // ------------------------------- the JVM instructions used
+
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+        LDC = 0x12, LDC_W = 0x13, ILOAD = 0x15, ALOAD_0 = 0x2a, ISTORE = 0x36,
+        DUP = 0x59, IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c,
+        INEG = 0x74, IXOR = 0x82, IINC = 0x84, IFEQ = 0x99, IFNE = 0x9a,
+        IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2,
+        IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, IRETURN = 0xac,
+        RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+    // ------------------------------- state
+
+    /** The constant pool */
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    /** The code of run */
+    private ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    /** Current and maximal depth of the operand stack */
+    private int stack = 0, maxStack = 0;
+
+    /** Number of integer and boolean variables */
+    private final int numberOfInts, numberOfBools;
+
+    /** The local variable that counts the failed assertions */
+    private final int failures;
+
+    /** The addresses of the labels (-1 if not placed yet), and the
+     *  jumps to patch: pairs (address of the jump, label) */
+    private List<Integer> labels = new ArrayList<Integer>();
+    private List<int[]> jumps = new ArrayList<int[]>();
+
+    JvmCompiler(EnvStatique E) {
+        numberOfInts = E.numberOfSlots(Type.INT);
+        numberOfBools = E.numberOfSlots(Type.BOOL);
+        failures = 1 + numberOfInts + numberOfBools;
+    }
+
+    /**
+     * Compile a block
+     * @param E the static environment of the block
+     * @param insts the instructions, analysed and resolved
+     * @return the compiled block, null if it cannot be compiled
+     */
+    static CompiledProgram compile(EnvStatique E, InstsNode insts) {
+        try {
+            JvmCompiler c = new JvmCompiler(E);
+            c.prologue();
+            insts.compileJvm(c);
+            byte b[] = c.classFile();
+            Class<?> k = MethodHandles.lookup().defineHiddenClass(b, true).lookupClass();
+            return (CompiledProgram)k.getDeclaredConstructor().newInstance();
+        }
+        catch (UnsupportedException | LinkageError e) {
+            return null;
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // ------------------------------- run-time support
+
+    static void writeInt(int v) {
+        Session.current().output.writeInt(v);
+    }
+
+    static void writeBool(boolean v) {
+        Session.current().output.writeBool(v);
+    }
+
+    static void assertionFailed(String assertion) {
+        Session.current().output.assertionFailed(assertion);
+    }
+
+    // ------------------------------- instructions
+
+    /** The variables are initialized to 0 and true */
+    private void prologue() {
+        for (int i = 0; i < numberOfInts + numberOfBools; i++) {
+            pushInt(i < numberOfInts ? 0 : 1);
+            local(ISTORE, 1 + i);
+            stack--;
+        }
+        pushInt(0);
+        local(ISTORE, failures);
+        stack--;
+    }
+
+    void compileAssign(Idf x, ExprNode e) {
+        expr(e);
+        local(ISTORE, local(x));
+        stack--;
+    }
+
+    /** y := x^2 - 4*x + 1, inline */
+    void compileP(Idf y, Idf x) {
+        load(x);
+        op(DUP, 1);
+        op(IMUL, -1);
+        load(x);
+        pushInt(4);
+        op(IMUL, -1);
+        op(ISUB, -1);
+        pushInt(1);
+        op(IADD, -1);
+        local(ISTORE, local(y));
+        stack--;
+    }
+
+    void compileRead(Idf x) {
+        constant(LDC, LDC_W, string(x.toString()));
+        call("ReadNode", "readInt", "(Ljava/lang/String;)I", 0);
+        local(ISTORE, local(x));
+        stack--;
+    }
+
+    void compileWrite(ExprNode e) {
+        expr(e);
+        if (e.type == Type.BOOL)
+            call("JvmCompiler", "writeBool", "(Z)V", -1);
+        else
+            call("JvmCompiler", "writeInt", "(I)V", -1);
+    }
+
+    /** A failed assertion increments the counter of failures */
+    void compileAssert(ExprNode e, String text) {
+        int ok = newLabel();
+        jump(e, true, ok);
+        iinc(failures, 1);
+        constant(LDC, LDC_W, string(text));
+        call("JvmCompiler", "assertionFailed", "(Ljava/lang/String;)V", -1);
+        placeLabel(ok);
+    }
+
+    void compileCond(ExprNode c, InstsNode thenpart, InstsNode elsepart) {
+        int otherwise = newLabel();
+        jump(c, false, otherwise);
+        thenpart.compileJvm(this);
+        if (elsepart != null) {
+            int end = newLabel();
+            branch(GOTO, end, 0);
+            placeLabel(otherwise);
+            elsepart.compileJvm(this);
+            placeLabel(end);
+        }
+        else
+            placeLabel(otherwise);
+    }
+
+    /** The test is at the end of the loop, one jump per iteration */
+    void compileWhile(ExprNode c, InstsNode body) {
+        int top = newLabel(), test = newLabel();
+        branch(GOTO, test, 0);
+        placeLabel(top);
+        body.compileJvm(this);
+        placeLabel(test);
+        jump(c, true, top);
+    }
+
+    // ------------------------------- expressions
+
+    /** Compile an expression, whose value is pushed on the stack */
+    private void expr(ExprNode e) {
+        switch (e.theKind) {
+        case INTCONST:
+            pushInt(e.value);
+            return;
+        case BOOLCONST:
+            pushInt(e.operator.theOp == OperatorKind.TRUE ? 1 : 0);
+            return;
+        case IDF:
+            load(e.idf);
+            return;
+        case UNARY:
+            expr(e.fg);
+            switch (e.operator.theOp) {
+            case PLUS: return;
+            case MOINS: op(INEG, 0); return;
+            case NOT: pushInt(1); op(IXOR, -1); return;
+            default: throw new UnsupportedException("operator " + e.operator);
+            }
+        case BINARY:
+            switch (e.operator.theOp) {
+            case PLUS: binary(e, IADD); return;
+            case MOINS: binary(e, ISUB); return;
+            case MULT: binary(e, IMUL); return;
+            case DIV: binary(e, IDIV); return;
+            default:
+                // a boolean: 1 or 0, through jumps
+                int no = newLabel(), end = newLabel();
+                jump(e, false, no);
+                pushInt(1);
+                branch(GOTO, end, 0);
+                stack--;
+                placeLabel(no);
+                pushInt(0);
+                placeLabel(end);
+                return;
+            }
+        default:
+            throw new UnsupportedException("expression " + e);
+        }
+    }
+
+    private void binary(ExprNode e, int op) {
+        expr(e.fg);
+        expr(e.fd);
+        op(op, -1);
+    }
+
+    /**
+     * Compile a boolean expression as a jump
+     * @param when jump when the expression has this value
+     * @param label the target of the jump
+     */
+    private void jump(ExprNode e, boolean when, int label) {
+        switch (e.theKind) {
+        case BOOLCONST:
+            if ((e.operator.theOp == OperatorKind.TRUE) == when)
+                branch(GOTO, label, 0);
+            return;
+        case UNARY:
+            if (e.operator.theOp == OperatorKind.NOT) {
+                jump(e.fg, !when, label);
+                return;
+            }
+            break;
+        case BINARY:
+            switch (e.operator.theOp) {
+            case AND:
+            case OR:
+                if ((e.operator.theOp == OperatorKind.AND) == when) {
+                    // both must have the value 'when'
+                    int skip = newLabel();
+                    jump(e.fg, !when, skip);
+                    jump(e.fd, when, label);
+                    placeLabel(skip);
+                }
+                else {
+                    jump(e.fg, when, label);
+                    jump(e.fd, when, label);
+                }
+                return;
+            case INF:
+                compare(e, when ? IF_ICMPLT : IF_ICMPGE, label);
+                return;
+            case SUP:
+                compare(e, when ? IF_ICMPGT : IF_ICMPLE, label);
+                return;
+            case EGAL:
+                compare(e, when ? IF_ICMPEQ : IF_ICMPNE, label);
+                return;
+            default:
+                break;
+            }
+            break;
+        default:
+            break;
+        }
+        expr(e);
+        branch(when ? IFNE : IFEQ, label, -1);
+    }
+
+    private void compare(ExprNode e, int op, int label) {
+        expr(e.fg);
+        expr(e.fd);
+        branch(op, label, -2);
+    }
+
+    // ------------------------------- emission
+
+    private int local(Idf i) {
+        return 1 + (i.type == Type.INT ? i.slot : numberOfInts + i.slot);
+    }
+
+    private void load(Idf i) {
+        local(ILOAD, local(i));
+        stack++;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /** iload or istore, wide if needed */
+    private void local(int op, int n) {
+        if (n > 255) {
+            code.write(WIDE);
+            code.write(op);
+            u2(code, n);
+        }
+        else {
+            code.write(op);
+            code.write(n);
+        }
+    }
+
+    private void iinc(int n, int k) {
+        code.write(WIDE);
+        code.write(IINC);
+        u2(code, n);
+        u2(code, k);
+    }
+
+    private void pushInt(int k) {
+        if (k >= -1 && k <= 5)
+            code.write(ICONST_0 + k);
+        else if (k >= Byte.MIN_VALUE && k <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(k);
+        }
+        else if (k >= Short.MIN_VALUE && k <= Short.MAX_VALUE) {
+            code.write(SIPUSH);
+            u2(code, k);
+        }
+        else
+            constant(LDC, LDC_W, integer(k));
+        stack++;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /** ldc or ldc_w of a constant of the pool */
+    private void constant(int narrow, int wide, int index) {
+        if (index > 255) {
+            code.write(wide);
+            u2(code, index);
+        }
+        else {
+            code.write(narrow);
+            code.write(index);
+        }
+        stack++;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /** an instruction without operand, that changes the stack by delta */
+    private void op(int op, int delta) {
+        code.write(op);
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /** invokestatic, with the change of the stack */
+    private void call(String owner, String name, String descriptor, int delta) {
+        code.write(INVOKESTATIC);
+        u2(code, method(owner, name, descriptor));
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private int newLabel() {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    private void placeLabel(int l) {
+        labels.set(l, code.size());
+    }
+
+    /** a jump to a label, patched at the end */
+    private void branch(int op, int label, int delta) {
+        jumps.add(new int[] { code.size(), label });
+        code.write(op);
+        u2(code, 0);
+        stack += delta;
+    }
+
+    // ------------------------------- class file
+
+    private static void u2(ByteArrayOutputStream out, int v) {
+        out.write(v >> 8);
+        out.write(v);
+    }
+
+    private static void u4(ByteArrayOutputStream out, int v) {
+        u2(out, v >> 16);
+        u2(out, v);
+    }
+
+    /** An entry of the constant pool, shared if it exists already */
+    private int entry(String key, int tag, int... operands) {
+        Integer i = poolIndex.get(key);
+        if (i != null) return i;
+        pool.write(tag);
+        for (int x : operands) u2(pool, x);
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int utf8(String s) {
+        Integer i = poolIndex.get("U" + s);
+        if (i != null) return i;
+        pool.write(1);
+        DataOutputStream d = new DataOutputStream(pool);
+        try {
+            d.writeUTF(s);
+        }
+        catch (IOException e) {
+            throw new UnsupportedException("string " + s);
+        }
+        poolIndex.put("U" + s, poolCount);
+        return poolCount++;
+    }
+
+    private int integer(int k) {
+        return entry("I" + k, 3, k >>> 16, k & 0xffff);
+    }
+
+    private int string(String s) {
+        return entry("S" + s, 8, utf8(s));
+    }
+
+    private int classRef(String name) {
+        return entry("C" + name, 7, utf8(name));
+    }
+
+    private int method(String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int nt = entry("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+        return entry("M" + owner + "." + name + descriptor, 10, c, nt);
+    }
+
+    /** The method: access flags, name, descriptor, Code attribute */
+    private void writeMethod(ByteArrayOutputStream out, int flags, String name,
+                             String descriptor, int maxStack, int maxLocals,
+                             byte body[]) {
+        u2(out, flags);
+        u2(out, utf8(name));
+        u2(out, utf8(descriptor));
+        u2(out, 1);
+        u2(out, utf8("Code"));
+        u4(out, 12 + body.length);
+        u2(out, maxStack);
+        u2(out, maxLocals);
+        u4(out, body.length);
+        out.write(body, 0, body.length);
+        u2(out, 0);     // exception table
+        u2(out, 0);     // attributes
+    }
+
+    /** End of the compilation: the jumps are patched, the class is written */
+    private byte[] classFile() {
+        local(ILOAD, failures);
+        code.write(IRETURN);
+        byte body[] = code.toByteArray();
+        if (body.length > 65535)
+            throw new UnsupportedException("method too large");
+        for (int j[] : jumps) {
+            int offset = labels.get(j[1]) - j[0];
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new UnsupportedException("jump too far");
+            body[j[0] + 1] = (byte)(offset >> 8);
+            body[j[0] + 2] = (byte)offset;
+        }
+
+        ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        int object = classRef("java/lang/Object");
+        int init = method("java/lang/Object", "<init>", "()V");
+        byte constructor[] = { (byte)ALOAD_0, (byte)INVOKESPECIAL,
+                               (byte)(init >> 8), (byte)init, (byte)RETURN };
+        writeMethod(methods, 0x0001, "<init>", "()V", 1, 1, constructor);
+        writeMethod(methods, 0x0001, "run", "()I", Math.max(maxStack, 1),
+                    failures + 1, body);
+        int self = classRef("CompiledBlock");
+        int itf = classRef("CompiledProgram");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        u4(out, 0xCAFEBABE);
+        u2(out, 0);
+        u2(out, 49);
+        u2(out, poolCount);
+        byte p[] = pool.toByteArray();
+        out.write(p, 0, p.length);
+        u2(out, 0x0031);        // public final super
+        u2(out, self);
+        u2(out, object);
+        u2(out, 1);
+        u2(out, itf);
+        u2(out, 0);             // fields
+        u2(out, 2);
+        byte m[] = methods.toByteArray();
+        out.write(m, 0, m.length);
+        u2(out, 0);             // attributes
+        return out.toByteArray();
+    }
+}
@@ -4,75 +4,175 @@
 
 public class Lg implements LgConstants {
 
-    static boolean assertEncountered = false;
-    static BufferedWriter outdot;
+    /** The session in which the parser works */
+    Session session = Session.current();
+
+    /** Constructor for a stream of bytes, read through a buffer */
+    public Lg(java.io.InputStream stream) {
+        this(new SimpleCharStream(stream, 1, 1));
+    }
+
+    /** Constructor for a stream of characters, read through a buffer */
+    public Lg(java.io.Reader stream) {
+        this(new SimpleCharStream(stream, 1, 1));
+    }
+
+    /** Constructor for a file, mapped in memory (see MappedCharStream) */
+    public Lg(java.nio.file.Path file) throws IOException {
+        this(new MappedCharStream(file));
+    }
 
     public static void main(String args[]) throws ParseException {
-        if (args.length != 1)
-            System.err.println("Usage : java Lg <prog.ff>");
-        else {
-            try {
-                // Create output file 
-                FileWriter fstream = new FileWriter(args[0]+".dot");
-                outdot = new BufferedWriter(fstream);
-
-                // parse input 
+        String usage = "Usage : java Lg [-engine ast|closure|vm|jit|flat]"
+            + " [-input file | -binary-input file]"
+            + " [-output stdout|buffered|async|discard | -binary-output file]"
+            + " [-cache file] [-passes none|fold,simplify,branches,deadstores]"
+            + " [-parser javacc|array]"
+            + " <prog.ff>";
+        Session session = Session.begin();
+        java.nio.file.Path cache = null;
+        boolean arrays = false;
+        int a = 0;
+        try {
+            for (; a < args.length - 1; a += 2) {
+                if (args[a].equals("-engine"))
+                    session.engine = Engine.valueOf(args[a+1].toUpperCase());
+                else if (args[a].equals("-input"))
+                    session.input =
+                        InputSource.mappedFile(java.nio.file.Paths.get(args[a+1]));
+                else if (args[a].equals("-binary-input"))
+                    session.input =
+                        InputSource.binary(new FileInputStream(args[a+1]));
+                else if (args[a].equals("-output"))
+                    session.output = output(args[a+1]);
+                else if (args[a].equals("-binary-output"))
+                    session.output =
+                        OutputSink.binary(new FileOutputStream(args[a+1]));
+                else if (args[a].equals("-passes"))
+                    session.passes = PassManager.parse(args[a+1]);
+                else if (args[a].equals("-parser")) {
+                    if (!args[a+1].equals("javacc") && !args[a+1].equals("array"))
+                        throw new IllegalArgumentException(args[a+1]);
+                    arrays = args[a+1].equals("array");
+                }
+                else if (args[a].equals("-cache")) {
+                    cache = java.nio.file.Paths.get(args[a+1]);
+                    session.cache =
+                        ResultCache.load(cache, ResultCache.CAPACITY);
+                }
+                else
+                    break;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(usage);
+            return;
+        }
+        catch (java.io.IOException eio) {
+            System.err.println(args[a+1] + " not found, aborting");
+            return;
+        }
+        if (a != args.length - 1) {
+            System.err.println(usage);
+            return;
+        }
+        String file = args[a];
+        try {
+            // Create output file 
+            FileWriter fstream = new FileWriter(file+".dot");
+            session.outdot = new BufferedWriter(fstream);
+
+            // parse input 
+            if (arrays)
+                process(new ArrayParser(LgLexer.lex(java.nio.file.Paths.get(file))).input());
+            else {
                 Lg parser =
-                    new Lg(new java.io.FileInputStream(args[0])) ;
+                    new Lg(java.nio.file.Paths.get(file)) ;
                 parser.Input();
-
-                outdot.close();
             }
-            catch (java.io.FileNotFoundException ef) {
-                System.err.println(args[0] + "not found, aborting");
-            }
-            catch (java.io.IOException eio) {
-                System.err.println(args[0] + "io error, aborting");
+
+            session.outdot.close();
+
+            if (cache != null) {
+                session.cache.save(cache);
+                System.out.println(session.cache);
             }
         }
+        catch (java.io.FileNotFoundException | java.nio.file.NoSuchFileException ef) {
+            System.err.println(file + "not found, aborting");
+        }
+        catch (java.io.IOException eio) {
+            System.err.println(file + "io error, aborting");
+        }
+    }
+
+    /** The output sink named on the command line */
+    static OutputSink output(String name) {
+        switch (name) {
+        case "stdout": return OutputSink.stdout();
+        case "buffered": return OutputSink.buffered(System.out, false);
+        case "async": return OutputSink.buffered(System.out, true);
+        case "discard": return OutputSink.discard();
+        default: throw new IllegalArgumentException(name);
+        }
+    }
+
+    /** Print, analyse and run a program, and write its control graph */
+    static void process(ProgNode m) {
+        System.out.println(m);
+        try {
+            m.analyse();
+            System.out.println(m.getDecls());
+        }
+        catch (AnalyseException ea) {
+            System.out.println(ea.getMessage());
+            System.out.println("aborting");
+            return;
+        }
+
+        m.execute();
+
+        // The control graph 
+        ControlGraph g = m.buildControlGraph();
+        System.out.println(g);
+        System.out.println(g.toDotFile());
+
+        // // Abstract interpretation 
+        // g.setAnalysisListener(new TraceListener());
+        // g.computeAbstractSigns(m.getDecls());
+        try {
+            Session.current().outdot.write(g.toDotFile());
+        }
+        catch (java.io.IOException io) {
+            System.err.println("IO error");
+        }
+
+        // System.out.println("assert may be violated: "
+        //               + g.errorIsReachable());
     }
 
 /* ===================================================
  */
-  static final public void Input() throws ParseException {
+  final public void Input() throws ParseException {
                 ProgNode m;
     m = main();
     jj_consume_token(0);
-            System.out.println(m);
-            try {
-                m.analyse();
-                System.out.println(m.getDecls());
-            }
-            catch (AnalyseException ea) {
-                System.out.println(ea.getMessage());
-                System.out.println("aborting");
-                {if (true) return;}
-            }
-
-            m.execute();
-
-            // The control graph 
-            ControlGraph g = m.buildControlGraph();
-            System.out.println(g);
-            System.out.println(g.toDotFile());
-
-            // // Abstract interpretation 
-            // g.computeAbstractSigns(m.getDecls());
-            try {
-                Lg.outdot.write(g.toDotFile());
-            }
-            catch (java.io.IOException io) {
-                System.err.println("IO error");
-            }
-
-            // System.out.println("assert may be violated: "
-            //               + g.errorIsReachable());
+          process(m);
+  }
 
+/* ===================================================
+ */
+  final public ProgNode program() throws ParseException {
+                       ProgNode m;
+    m = main();
+    jj_consume_token(0);
+          {if (true) return m;}
+    throw new Error("Missing return statement in function");
   }
 
 /* ===================================================
  */
-  static final public ProgNode main() throws ParseException {
+  final public ProgNode main() throws ParseException {
     DeclsNode d;
     InstsNode i;
     Token t;
@@ -89,7 +189,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public DeclsNode Decls() throws ParseException {
+  final public DeclsNode Decls() throws ParseException {
     Token t = new Token();
     DeclNode d;
     java.util.List<DeclNode>  decls = new java.util.LinkedList<DeclNode>();
@@ -113,7 +213,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public InstsNode Insts() throws ParseException {
+  final public InstsNode Insts() throws ParseException {
     Token t = new Token();
     InstNode ii;
     java.util.List<InstNode>  insts =  new java.util.LinkedList<InstNode>();
@@ -143,7 +243,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public DeclNode Decl() throws ParseException {
+  final public DeclNode Decl() throws ParseException {
     Token t;
     TypeNode ty;
     java.util.List<Idf> li;
@@ -156,7 +256,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public java.util.List<Idf> LidfNV() throws ParseException {
+  final public java.util.List<Idf> LidfNV() throws ParseException {
     Token t;
     java.util.List<Idf> li;
     t = jj_consume_token(IDF);
@@ -181,7 +281,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public TypeNode Type() throws ParseException {
+  final public TypeNode Type() throws ParseException {
     Token t;
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
     case INT:
@@ -202,7 +302,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public InstNode Inst() throws ParseException {
+  final public InstNode Inst() throws ParseException {
     Token t = new Token();
     AffNode af;
     CondNode cd;
@@ -237,8 +337,8 @@ public class Lg implements LgConstants {
       break;
     case ASSERT:
       as = Assert();
-              if (!Lg.assertEncountered) {
-                  Lg.assertEncountered = true;
+              if (!session.assertEncountered) {
+                  session.assertEncountered = true;
                   {if (true) return as;}
               } else {
                   {if (true) throw new UnsupportedOperationException
@@ -255,7 +355,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public AssertNode Assert() throws ParseException {
+  final public AssertNode Assert() throws ParseException {
     Token t;
     ExprNode e;
     t = jj_consume_token(ASSERT);
@@ -266,7 +366,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public ReadNode InstRead() throws ParseException {
+  final public ReadNode InstRead() throws ParseException {
     Token t, ii;
     t = jj_consume_token(READ);
     ii = jj_consume_token(IDF);
@@ -276,7 +376,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public WriteNode InstWrite() throws ParseException {
+  final public WriteNode InstWrite() throws ParseException {
     Token t;
     ExprNode e;
     t = jj_consume_token(WRITE);
@@ -287,7 +387,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public AffNode InstAff() throws ParseException {
+  final public AffNode InstAff() throws ParseException {
     Token t;
     Token idf;
     ExprNode e;
@@ -321,7 +421,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public CondNode InstCond() throws ParseException {
+  final public CondNode InstCond() throws ParseException {
     Token t;
     ExprNode c;
     InstsNode th, el = null;
@@ -345,7 +445,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public WhileNode InstWhile() throws ParseException {
+  final public WhileNode InstWhile() throws ParseException {
     Token t; InstsNode body;    ExprNode c;
     t = jj_consume_token(WHILE);
     c = Expr();
@@ -358,7 +458,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public ExprNode Expr() throws ParseException {
+  final public ExprNode Expr() throws ParseException {
     Token t = null;
     ExprNode s1, s2 = null;
     s1 = SimpleExpr();
@@ -382,7 +482,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public ExprNode SimpleExpr() throws ParseException {
+  final public ExprNode SimpleExpr() throws ParseException {
     Token t ;
     ExprNode t1, t2 = null;
     t1 = Terme();
@@ -408,7 +508,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public ExprNode Terme() throws ParseException {
+  final public ExprNode Terme() throws ParseException {
     Token t;
     ExprNode f1, f2;
     f1 = Factor();
@@ -434,7 +534,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public ExprNode Factor() throws ParseException {
+  final public ExprNode Factor() throws ParseException {
     Token t;
     ExprNode u;
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
@@ -475,7 +575,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public Token AddOp() throws ParseException {
+  final public Token AddOp() throws ParseException {
     Token t ;
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
     case PLUS:
@@ -500,7 +600,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public Token MulOp() throws ParseException {
+  final public Token MulOp() throws ParseException {
     Token t;
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
     case MULT:
@@ -525,7 +625,7 @@ public class Lg implements LgConstants {
 
 /* ===================================================
  */
-  static final public Token Relation() throws ParseException {
+  final public Token Relation() throws ParseException {
     Token t;
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
     case EGAL:
@@ -548,17 +648,15 @@ public class Lg implements LgConstants {
     throw new Error("Missing return statement in function");
   }
 
-  static private boolean jj_initialized_once = false;
   /** Generated Token Manager. */
-  static public LgTokenManager token_source;
-  static SimpleCharStream jj_input_stream;
+  public LgTokenManager token_source;
   /** Current token. */
-  static public Token token;
+  public Token token;
   /** Next token. */
-  static public Token jj_nt;
-  static private int jj_ntk;
-  static private int jj_gen;
-  static final private int[] jj_la1 = new int[14];
+  public Token jj_nt;
+  private int jj_ntk;
+  private int jj_gen;
+  final private int[] jj_la1 = new int[14];
   static private int[] jj_la1_0;
   static private int[] jj_la1_1;
   static {
@@ -572,21 +670,9 @@ public class Lg implements LgConstants {
       jj_la1_1 = new int[] {0x1,0x1,0x0,0x0,0x1,0x103,0x0,0xe00,0x94,0x68,0x103,0x94,0x68,0xe00,};
    }
 
-  /** Constructor with InputStream. */
-  public Lg(java.io.InputStream stream) {
-     this(stream, null);
-  }
-  /** Constructor with InputStream and supplied encoding */
-  public Lg(java.io.InputStream stream, String encoding) {
-    if (jj_initialized_once) {
-      System.out.println("ERROR: Second call to constructor of static parser.  ");
-      System.out.println("       You must either use ReInit() or set the JavaCC option STATIC to false");
-      System.out.println("       during parser generation.");
-      throw new Error();
-    }
-    jj_initialized_once = true;
-    try { jj_input_stream = new SimpleCharStream(stream, encoding, 1, 1); } catch(java.io.UnsupportedEncodingException e) { throw new RuntimeException(e); }
-    token_source = new LgTokenManager(jj_input_stream);
+  /** Constructor with user supplied CharStream. */
+  public Lg(CharStream stream) {
+    token_source = new LgTokenManager(stream);
     token = new Token();
     jj_ntk = -1;
     jj_gen = 0;
@@ -594,40 +680,8 @@ public class Lg implements LgConstants {
   }
 
   /** Reinitialise. */
-  static public void ReInit(java.io.InputStream stream) {
-     ReInit(stream, null);
-  }
-  /** Reinitialise. */
-  static public void ReInit(java.io.InputStream stream, String encoding) {
-    try { jj_input_stream.ReInit(stream, encoding, 1, 1); } catch(java.io.UnsupportedEncodingException e) { throw new RuntimeException(e); }
-    token_source.ReInit(jj_input_stream);
-    token = new Token();
-    jj_ntk = -1;
-    jj_gen = 0;
-    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
-  }
-
-  /** Constructor. */
-  public Lg(java.io.Reader stream) {
-    if (jj_initialized_once) {
-      System.out.println("ERROR: Second call to constructor of static parser. ");
-      System.out.println("       You must either use ReInit() or set the JavaCC option STATIC to false");
-      System.out.println("       during parser generation.");
-      throw new Error();
-    }
-    jj_initialized_once = true;
-    jj_input_stream = new SimpleCharStream(stream, 1, 1);
-    token_source = new LgTokenManager(jj_input_stream);
-    token = new Token();
-    jj_ntk = -1;
-    jj_gen = 0;
-    for (int i = 0; i < 14; i++) jj_la1[i] = -1;
-  }
-
-  /** Reinitialise. */
-  static public void ReInit(java.io.Reader stream) {
-    jj_input_stream.ReInit(stream, 1, 1);
-    token_source.ReInit(jj_input_stream);
+  public void ReInit(CharStream stream) {
+    token_source.ReInit(stream);
     token = new Token();
     jj_ntk = -1;
     jj_gen = 0;
@@ -636,13 +690,6 @@ public class Lg implements LgConstants {
 
   /** Constructor with generated Token Manager. */
   public Lg(LgTokenManager tm) {
-    if (jj_initialized_once) {
-      System.out.println("ERROR: Second call to constructor of static parser. ");
-      System.out.println("       You must either use ReInit() or set the JavaCC option STATIC to false");
-      System.out.println("       during parser generation.");
-      throw new Error();
-    }
-    jj_initialized_once = true;
     token_source = tm;
     token = new Token();
     jj_ntk = -1;
@@ -659,7 +706,7 @@ public class Lg implements LgConstants {
     for (int i = 0; i < 14; i++) jj_la1[i] = -1;
   }
 
-  static private Token jj_consume_token(int kind) throws ParseException {
+  private Token jj_consume_token(int kind) throws ParseException {
     Token oldToken;
     if ((oldToken = token).next != null) token = token.next;
     else token = token.next = token_source.getNextToken();
@@ -675,7 +722,7 @@ public class Lg implements LgConstants {
 
 
 /** Get the next Token. */
-  static final public Token getNextToken() {
+  final public Token getNextToken() {
     if (token.next != null) token = token.next;
     else token = token.next = token_source.getNextToken();
     jj_ntk = -1;
@@ -684,7 +731,7 @@ public class Lg implements LgConstants {
   }
 
 /** Get the specific Token. */
-  static final public Token getToken(int index) {
+  final public Token getToken(int index) {
     Token t = token;
     for (int i = 0; i < index; i++) {
       if (t.next != null) t = t.next;
@@ -693,19 +740,19 @@ public class Lg implements LgConstants {
     return t;
   }
 
-  static private int jj_ntk() {
+  private int jj_ntk() {
     if ((jj_nt=token.next) == null)
       return (jj_ntk = (token.next=token_source.getNextToken()).kind);
     else
       return (jj_ntk = jj_nt.kind);
   }
 
-  static private java.util.List<int[]> jj_expentries = new java.util.ArrayList<int[]>();
-  static private int[] jj_expentry;
-  static private int jj_kind = -1;
+  private java.util.List<int[]> jj_expentries = new java.util.ArrayList<int[]>();
+  private int[] jj_expentry;
+  private int jj_kind = -1;
 
   /** Generate ParseException. */
-  static public ParseException generateParseException() {
+  public ParseException generateParseException() {
     jj_expentries.clear();
     boolean[] la1tokens = new boolean[44];
     if (jj_kind >= 0) {
@@ -739,11 +786,11 @@ public class Lg implements LgConstants {
   }
 
   /** Enable tracing. */
-  static final public void enable_tracing() {
+  final public void enable_tracing() {
   }
 
   /** Disable tracing. */
-  static final public void disable_tracing() {
+  final public void disable_tracing() {
   }
 
 }
@@ -0,0 +1,253 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Batch driver: runs the front end and the sign analysis on a whole
+ * set of programs, in one JVM, on a bounded pool of worker threads.
+ * <p>
+ * Usage: java LgBatch [-j threads] [-o results] [-ffb | -cfg] [-flat] [-packed] [-compact] [-dot] [-passes names] (dir | glob | file.ff)...
+ * <p>
+ * A directory stands for all the .ff files below it. For each program,
+ * one record is written, with tab-separated fields:
+ * file, status, number of control points, whether the assert may be
+ * violated, time in milliseconds, message. A failure (lexical, syntax
+ * or typing error, or any other exception or error raised for the
+ * program, such as a stack overflow) is reported in the record of its
+ * file and does not stop the batch.
+ * <p>
+ * With -ffb, the programs are loaded from their binary forms, written
+ * at the first run (see AstFile). With -cfg, their control graphs are
+ * built as they are parsed, without their abstract trees (see
+ * CfgParser). With -flat, their abstract trees are flattened and
+ * dropped, and the analysis runs on the flat forms (see FlatSigns):
+ * the dead stores are not removed, and -cfg, -compact and -dot do not
+ * apply. With -packed, the signs of the analysis are kept in
+ * PackedSignVectors, which take less memory than SignVectors. With
+ * -compact, the analysis runs on the compact form of the graphs (see
+ * CompactControlGraph). With -dot, the analysed graph of each program
+ * is written to its .dot file. With -passes, the optimizations are
+ * chosen as with java Lg, for instance -passes fold,deadstores.
+ */
+public class LgBatch {
+
+    /** True if the programs are loaded from their binary forms */
+    static boolean precompiled = false;
+
+    /** True if the control graphs are built by the parser */
+    static boolean direct = false;
+
+    /** True if the programs are analysed on their flat forms */
+    static boolean flat = false;
+
+    /** True if the signs are kept in PackedSignVectors */
+    static boolean packed = false;
+
+    /** True if the analysis runs on CompactControlGraphs */
+    static boolean compact = false;
+
+    /** True if the analysed graphs are written to .dot files */
+    static boolean dot = false;
+
+    /** The passes of the sessions (see PassManager.parse), null for the
+     *  standard ones */
+    static String passes = null;
+
+    /** Result of the analysis of one file */
+    static class Result {
+        String file;
+        String status = "ok";
+        int points = 0;
+        boolean errorReachable = false;
+        long millis;
+        String message = "";
+
+        public String toString() {
+            return file + "\t" + status + "\t" + points + "\t" + errorReachable
+                + "\t" + millis + "\t" + message.replace('\n', ' ').replace('\t', ' ');
+        }
+    }
+
+    /**
+     * parse -> analyse -> buildControlGraph -> computeAbstractSigns for
+     * one file, in a fresh session
+     */
+    static Result analyse(Path file) {
+        Result r = new Result();
+        r.file = file.toString();
+        long start = System.nanoTime();
+        Session session = Session.begin();
+        session.traces = false;
+        if (passes != null) session.passes = PassManager.parse(passes);
+        try {
+            String graph = null;
+            if (flat) {
+                // the tree is dropped as soon as it is flattened
+                FlatSigns f = new FlatSigns(program(file).flatten(), packed);
+                f.computeAbstractSigns();
+                r.points = f.numberOfPoints;
+                r.errorReachable = f.errorIsReachable();
+            }
+            else {
+                ControlGraph g;
+                EnvStatique E;
+                if (direct) {
+                    CfgParser parser = new CfgParser(LgLexer.lex(file));
+                    g = parser.graph();
+                    E = parser.getDecls();
+                }
+                else {
+                    ProgNode m = program(file);
+                    g = m.buildControlGraph();
+                    E = m.getDecls();
+                }
+                g.setPackedSigns(packed);
+                if (compact) {
+                    CompactControlGraph c = new CompactControlGraph(g);
+                    c.computeAbstractSigns(E);
+                    r.points = c.numberOfPoints;
+                    r.errorReachable = c.errorIsReachable();
+                    graph = dot ? c.toDotFile() : null;
+                }
+                else {
+                    g.computeAbstractSignsWorklist(E);
+                    r.points = g.theControlPoints.size();
+                    r.errorReachable = g.errorIsReachable();
+                    graph = dot ? g.toDotFile() : null;
+                }
+            }
+            if (graph != null)
+                Files.write(Paths.get(file + ".dot"), graph.getBytes());
+        }
+        catch (ParseException e) {
+            r.status = "syntax-error";
+            r.message = e.getMessage();
+        }
+        catch (TokenMgrError e) {
+            r.status = "lexical-error";
+            r.message = e.getMessage();
+        }
+        catch (AnalyseException e) {
+            r.status = "type-error";
+            r.message = e.getMessage();
+        }
+        catch (IOException e) {
+            r.status = "io-error";
+            r.message = e.toString();
+        }
+        catch (RuntimeException | Error e) {
+            r.status = "failure";
+            r.message = e.toString();
+        }
+        r.millis = (System.nanoTime() - start) / 1000000;
+        return r;
+    }
+
+    /** The program of a file, analysed, from its binary form or its text */
+    static ProgNode program(Path file) throws IOException, ParseException {
+        if (precompiled)
+            return AstFile.program(file);
+        Lg parser = new Lg(file);
+        ProgNode m = parser.program();
+        m.analyse();
+        return m;
+    }
+
+    /**
+     * The files designated by an argument: a directory (all the .ff
+     * files below it), a glob pattern such as examples/ex*.ff, or a file
+     */
+    static List<Path> expand(String arg) throws IOException {
+        Path p = Paths.get(arg);
+        if (Files.isDirectory(p)) {
+            try (Stream<Path> s = Files.walk(p)) {
+                return s.filter(f -> f.toString().endsWith(".ff") && Files.isRegularFile(f))
+                    .sorted().collect(Collectors.toList());
+            }
+        }
+        int glob = indexOfGlob(arg);
+        if (glob < 0)
+            return Collections.singletonList(p);
+
+        // walk from the directory that precedes the first wildcard
+        int slash = arg.lastIndexOf('/', glob);
+        Path base = Paths.get(slash < 0 ? "." : arg.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+        try (Stream<Path> s = Files.walk(base)) {
+            return s.map(f -> slash < 0 ? base.relativize(f) : f)
+                .filter(f -> matcher.matches(f) && Files.isRegularFile(f))
+                .sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfGlob(String arg) {
+        for (int i = 0; i < arg.length(); i++)
+            if ("*?[{".indexOf(arg.charAt(i)) >= 0) return i;
+        return -1;
+    }
+
+    public static void main(String args[]) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String output = null;
+        List<Path> files = new ArrayList<Path>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-o") && i + 1 < args.length)
+                output = args[++i];
+            else if (args[i].equals("-ffb"))
+                precompiled = true;
+            else if (args[i].equals("-cfg"))
+                direct = true;
+            else if (args[i].equals("-flat"))
+                flat = true;
+            else if (args[i].equals("-packed"))
+                packed = true;
+            else if (args[i].equals("-compact"))
+                compact = true;
+            else if (args[i].equals("-dot"))
+                dot = true;
+            else if (args[i].equals("-passes") && i + 1 < args.length)
+                passes = args[++i];
+            else
+                files.addAll(expand(args[i]));
+        }
+        try {
+            if (passes != null) PassManager.parse(passes);
+        }
+        catch (IllegalArgumentException e) {
+            files.clear();
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage : java LgBatch [-j threads] [-o results] [-ffb | -cfg] [-flat] [-packed] [-compact] [-dot] [-passes names] (dir | glob | file.ff)...");
+            return;
+        }
+
+        PrintStream console = System.out;
+        PrintStream out = output == null ? console 
+            : new PrintStream(new BufferedOutputStream(new FileOutputStream(output)));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> results = new ArrayList<Future<Result>>();
+            for (Path f : files)
+                results.add(pool.submit(() -> analyse(f)));
+
+            out.println("file\tstatus\tpoints\tassert_may_fail\tms\tmessage");
+            int failures = 0;
+            for (Future<Result> r : results) {
+                Result res = r.get();
+                if (!res.status.equals("ok")) failures++;
+                out.println(res);
+            }
+            out.flush();
+            console.println(files.size() + " files, " + failures + " failures");
+        }
+        finally {
+            pool.shutdown();
+            if (out != console) out.close();
+        }
+    }
+}
@@ -21,7 +21,8 @@ class Operator {
     OperatorKind theOp;    
     private String image;
     Operator(int theO) {
-        image = LgConstants.tokenImage[theO];
+        // the image coming from javacc has quotes. remove them. 
+        image = LgConstants.tokenImage[theO].replace("\"", "");
         switch(theO) {
         case LgConstants.PLUS: theOp=OperatorKind.PLUS; break; 
         case LgConstants.MOINS: theOp=OperatorKind.MOINS; break; 
@@ -39,8 +40,7 @@ class Operator {
         }
     }
     public String toString() {
-        // the image coming from javacc has quotes. remove them. 
-        return image.replaceAll("\"", ""); 
+        return image;
     }
 }
 
@@ -54,6 +54,9 @@ class MiniLgNode {
 
     MiniLgNode(Token t) { root = t; }
     public String toString() { return root.toString(); }
+
+    /** The token of the node */
+    Token token() { return root; }
 }
 
 /**
@@ -67,6 +70,9 @@ class ProgNode extends MiniLgNode {
     /** The name of the program */
     private String name ;
 
+    /** The hash of the printable form, for the cache of results */
+    private String hash;
+
     /** Constructor 
      * @param t the lexical token of the word "program"
      * @param n the lexical token of the program name 
@@ -93,7 +99,8 @@ class ProgNode extends MiniLgNode {
      */
     public void analyse() { 
         b.analyse();
-        System.out.println("Name and Type analysis ok");
+        if (Session.current().traces)
+            System.out.println("Name and Type analysis ok");
     }
 
     /**
@@ -104,6 +111,21 @@ class ProgNode extends MiniLgNode {
         return super.toString() + " " + name + "\n" + b.toString();
     }
 
+    /**
+     * Resolution of a program loaded analysed (see AstFile)
+     */
+    void resolve() {
+        b.resolve();
+    }
+
+    /**
+     * Write the program in binary form (see AstFile)
+     * @return the index of its node
+     */
+    int save(AstWriter w) {
+        return w.node(AstFile.PROG, token(), w.string(name), b.save(w));
+    }
+
     /**
      * builds the control graph of the program
      * @return the control graph
@@ -115,11 +137,34 @@ class ProgNode extends MiniLgNode {
     }
 
     /** 
-     * Execution
+     * Execution, through the cache of results of the session if any
      */
     public void execute() { 
-        b.execute();
+        ResultCache cache = Session.current().cache;
+        if (cache == null) {
+            b.execute();
+            return;
+        }
+        if (hash == null) hash = ResultCache.hash(toString());
+        cache.execute(hash, b::execute);
     } 
+
+    /**
+     * Execution over many input tuples at once
+     * @param inputs the values read, one tuple per execution
+     * @return the final environment, with the outputs
+     */
+    public ColumnarEnv executeBatch(int inputs[][]) {
+        return b.executeBatch(inputs);
+    }
+
+    /**
+     * The flat form of the program, analysed, which may be kept and
+     * executed instead of the tree (see FlatTree)
+     */
+    FlatTree flatten() {
+        return b.flatten();
+    }
 }
 
 
@@ -180,16 +225,38 @@ class BlocNode extends MiniLgNode {
      */
     public void analyse() {
         E = decls.theDecls();
-        System.out.println("Static environment: " + E + "\n\n\n");
+        if (Session.current().traces)
+            System.out.println("Static environment: " + E + "\n\n\n");
         analysisDone = true;
         insts.analyse(E);
+        PassManager passes = Session.current().passes;
+        if (passes != null) passes.run(insts);
+        insts.resolve(E);
+    }
+
+    /**
+     * Resolution of a block loaded analysed (see AstFile): the static
+     * environment is built again, without the analysis and the passes
+     */
+    void resolve() {
+        E = decls.theDecls();
+        analysisDone = true;
+        insts.resolve(E);
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.BLOC, token(), decls.save(w), insts.save(w));
     }
 
     /**
-     * Build the control graph of the block
+     * Build the control graph of the block, optimized by the passes
+     * of the session
      */
     public ControlGraph buildControlGraph() {
-        return insts.buildControlGraph();
+        ControlGraph g = insts.buildControlGraph();
+        PassManager passes = Session.current().passes;
+        if (passes != null) passes.run(g);
+        return g;
     }
 
     /** 
@@ -198,20 +265,58 @@ class BlocNode extends MiniLgNode {
     public void execute() { 
         if (!analysisDone)
             throw new AnalyseException("Perform type analysis first");
-        EnvDynamique ED = new EnvDynamique(E);
+        try {
+            run();
+        }
+        finally {
+            Session.current().output.flush();
+        }
+    } 
 
-        EnvStatique e = decls.theDecls();
-        for(Idf idf : e.getIdfSet()) {
-            if(ED.get(idf).isUninit()) {
+    /**
+     * Execution over many input tuples at once, in columns
+     * @param inputs the values read, one tuple per lane
+     */
+    public ColumnarEnv executeBatch(int inputs[][]) {
+        if (!analysisDone)
+            throw new AnalyseException("Perform type analysis first");
+        // the variables are initialized to 0 and true
+        ColumnarEnv C = new ColumnarEnv(E, inputs);
+        insts.executeBatch(C, C.alive.clone());
+        return C;
+    }
 
-                if(e.getType(idf) == Type.INT)
-                    ED.set(idf, new Value(0));
-                else ED.set(idf, new Value(true));
+    /** The flat form of the block */
+    FlatTree flatten() {
+        if (!analysisDone)
+            throw new AnalyseException("Perform type analysis first");
+        return FlatBuilder.build(E, insts);
+    }
 
-            }
+    /** Execution by the engine of the session */
+    private void run() {
+        switch (Session.current().engine) {
+        case VM:
+            VmCompiler.compile(E, insts).run();
+            break;
+        case FLAT:
+            flatten().run();
+            break;
+        case JIT:
+            CompiledProgram p = JvmCompiler.compile(E, insts);
+            if (p != null)
+                p.run();
+            else
+                // cannot be compiled: fall back to the interpreter
+                insts.execute(new EnvDynamique(E));
+            break;
+        case AST:
+            // the variables are initialized to 0 and true
+            insts.execute(new EnvDynamique(E));
+            break;
+        default:
+            insts.compileClosure().execute(new EnvDynamique(E));
         }
-
-        insts.execute(ED);
     } 
 }
 
@@ -260,19 +365,132 @@ class InstsNode extends MiniLgNode {
         }
     }
 
+    /**
+     * Resolution of the identifiers (slots in the frames)
+     */
+    public void resolve(EnvStatique E) {
+        for (InstNode in : insts)
+            in.resolve(E);
+    }
+
+    /**
+     * Write the instructions in binary form (see AstFile)
+     * @return the index of the node
+     */
+    int save(AstWriter w) {
+        int n[] = new int[insts.size()], k = 0;
+        for (InstNode in : insts)
+            n[k++] = in.save(w);
+        return w.node(AstFile.INSTS, token(), n);
+    }
+
     /**
      * Build the control graph of the sequence of instructions
      */
     public ControlGraph buildControlGraph() {
         ControlGraph g = new ControlGraph();
-        Iterator<InstNode> i = insts.iterator();
-        while (i.hasNext()) {
-            InstNode in = i.next();
-            g.addLast(in.buildControlGraph());
-        }
+        appendControlGraph(g);
         return g;
     }
 
+    /**
+     * Append the instructions to a control graph, at its exit point
+     */
+    public void appendControlGraph(ControlGraph g) {
+        for (InstNode in : insts)
+            in.appendControlGraph(g);
+    }
+
+    /**
+     * Translation into code for the register machine
+     */
+    public void compileVm(VmCompiler c) {
+        for (InstNode in : insts)
+            in.compileVm(c);
+    }
+
+    /**
+     * Translation into the flat form
+     * @return the node of the first instruction, -1 for none
+     */
+    int flatten(FlatBuilder f) {
+        int n[] = new int[insts.size()], k = 0;
+        for (InstNode in : insts)
+            n[k++] = in.flatten(f);
+        return f.sequence(n);
+    }
+
+    /**
+     * Translation into JVM code
+     */
+    public void compileJvm(JvmCompiler c) {
+        for (InstNode in : insts)
+            in.compileJvm(c);
+    }
+
+    /**
+     * Execution in columns, on the lanes of a mask; the lanes that
+     * fail are removed from the mask
+     */
+    public void executeBatch(ColumnarEnv C, boolean mask[]) {
+        int errors = C.errors;
+        for (InstNode in : insts) {
+            if (!ColumnarEnv.any(mask)) return;
+            in.executeBatch(C, mask);
+            if (C.errors != errors) {
+                for (int i = 0; i < C.n; i++) mask[i] &= C.alive[i];
+                errors = C.errors;
+            }
+        }
+    }
+
+    /**
+     * Optimization: each instruction is transformed, then rewritten by
+     * the pass (possibly into several instructions, or none)
+     */
+    void transform(AstPass p) {
+        List<InstNode> l = new LinkedList<InstNode>();
+        for (InstNode in : insts) {
+            in.transform(p);
+            InstsNode r = p.rewrite(in);
+            if (r == null) l.add(in);
+            else l.addAll(r.insts);
+        }
+        insts = l;
+    }
+
+    /**
+     * Add the updates of the instructions to a counting loop
+     * @return false if one instruction is not an update x := x + c
+     */
+    boolean addAffineSteps(CountingLoop L) {
+        for (InstNode in : insts)
+            if (!in.addAffineSteps(L)) return false;
+        return true;
+    }
+
+    /**
+     * Translation into a closure
+     */
+    public InstCode compileClosure() {
+        InstCode code[] = new InstCode[insts.size()];
+        int n = 0;
+        for (InstNode in : insts)
+            code[n++] = in.compileClosure();
+        switch (n) {
+        case 0: return ED -> {};
+        case 1: return code[0];
+        case 2: {
+            InstCode c0 = code[0], c1 = code[1];
+            return ED -> { c0.execute(ED); c1.execute(ED); };
+        }
+        default:
+            return ED -> {
+                for (InstCode c : code) c.execute(ED);
+            };
+        }
+    }
+
     /** 
      * Execution
      */
@@ -297,9 +515,61 @@ abstract class InstNode  extends MiniLgNode {
      * @param E a static environment from the upper level
      */
     public abstract void analyse(EnvStatique E);
+
+    /** 
+     * Resolution of the identifiers, once the analysis is done
+     * @param E the static environment
+     */
+    public abstract void resolve(EnvStatique E);
         
-    /** Build the control graph of the sequence of instructions */
-    public abstract ControlGraph buildControlGraph();
+    /** Build the control graph of the instruction */
+    public ControlGraph buildControlGraph() {
+        ControlGraph g = new ControlGraph();
+        appendControlGraph(g);
+        return g;
+    }
+
+    /** Append the instruction to a control graph, at its exit point */
+    public abstract void appendControlGraph(ControlGraph g);
+
+    /** Translation into code for the register machine */
+    public abstract void compileVm(VmCompiler c);
+
+    /** Translation into JVM code */
+    public abstract void compileJvm(JvmCompiler c);
+
+    /**
+     * Translation into the flat form (see FlatTree)
+     * @return the index of its node, -1 for none
+     */
+    abstract int flatten(FlatBuilder f);
+
+    /** Optimization: transform the parts of the instruction by a pass */
+    public abstract void transform(AstPass p);
+
+    /**
+     * Write the instruction in binary form (see AstFile)
+     * @return the index of its node
+     */
+    abstract int save(AstWriter w);
+
+    /**
+     * Add the update made by the instruction to a counting loop
+     * @return false if the instruction is not an update x := x + c
+     */
+    boolean addAffineSteps(CountingLoop L) {
+        return false;
+    }
+
+    /** Translation into a closure */
+    public abstract InstCode compileClosure();
+
+    /** 
+     * Execution in columns
+     * @param C the environment
+     * @param mask the lanes where the instruction is executed
+     */
+    public abstract void executeBatch(ColumnarEnv C, boolean mask[]);
 
     /** 
      * Execution
@@ -319,10 +589,26 @@ class NullNode extends  InstNode {
 
     public  void analyse (EnvStatique E)   {}
 
-    public  ControlGraph buildControlGraph() { 
-        return new ControlGraph();
+    public  void resolve (EnvStatique E)   {}
+
+    public  void transform(AstPass p) {}
+
+    int save(AstWriter w) {
+        return w.node(AstFile.NULL, token());
     }
 
+    public  void appendControlGraph(ControlGraph g) {}
+
+    public  void compileVm(VmCompiler c) {}
+
+    public  void compileJvm(JvmCompiler c) {}
+
+    int flatten(FlatBuilder f) { return -1; }
+
+    public  InstCode compileClosure() { return ED -> {}; }
+
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {}
+
     /** 
      * Execution
      */
@@ -357,6 +643,10 @@ class AffNode extends  InstNode {
     /** Get the identifier */
     public Idf getIdf() { return affecte;}
 
+    boolean addAffineSteps(CountingLoop L) {
+        return L.addUpdate(affecte, expr);
+    }
+
     public String toString() { 
         return affecte.toString() + " " + super.toString() + (expr == null ? "" : " " + expr.toString());
     }
@@ -375,17 +665,74 @@ class AffNode extends  InstNode {
                 ("Incompatible types in assignment" + " line " + 
                  assign.beginLine + " column " + assign.beginColumn);
     }
+
+    public  void resolve(EnvStatique E) {
+        affecte.resolve(E);
+        expr.resolve(E);
+    }
+
+    public  void transform(AstPass p) {
+        expr = expr.transform(p);
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.AFF, token(), w.token(affecte.token()), expr.save(w));
+    }
         
     /** Build the control graph of the sequence of the assignment */
-    public  ControlGraph buildControlGraph() {
-        return new ControlGraph(this);
+    public  void appendControlGraph(ControlGraph g) {
+        g.appendAssign(this);
+    }
+
+    public  void compileVm(VmCompiler c) {
+        c.compileAssign(affecte, expr);
+    }
+
+    public  void compileJvm(JvmCompiler c) {
+        c.compileAssign(affecte, expr);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.assign(affecte, expr);
+    }
+
+    public  InstCode compileClosure() {
+        int x = affecte.slot;
+        if (affecte.type == Type.INT) {
+            IntExpr e = expr.compileInt();
+            return ED -> ED.setIntAt(x, e.eval(ED));
+        }
+        BoolExpr e = expr.compileBool();
+        return ED -> ED.setBoolAt(x, e.eval(ED));
+    }
+
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {
+        if (affecte.type == Type.INT) {
+            int v[] = C.intTemp();
+            expr.evaluateInts(C, mask, v);
+            int x[] = C.ints[affecte.slot];
+            for (int i = 0; i < C.n; i++)
+                if (mask[i]) x[i] = v[i];
+            C.release(v);
+        }
+        else {
+            boolean v[] = C.boolTemp();
+            expr.evaluateBools(C, mask, v);
+            boolean x[] = C.bools[affecte.slot];
+            for (int i = 0; i < C.n; i++)
+                if (mask[i]) x[i] = v[i];
+            C.release(v);
+        }
     }
 
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {
-        ED.set(affecte, expr.evaluate(ED));
+        if (affecte.type == Type.INT)
+            ED.setInt(affecte, expr.evaluateInt(ED));
+        else
+            ED.setBool(affecte, expr.evaluateBool(ED));
     } 
 }
 
@@ -431,13 +778,58 @@ class PAffNode extends AffNode {
                  " should be an INT");
     }
 
+    public void resolve(EnvStatique E) {
+        affecte.resolve(E);
+        x.resolve(E);
+    }
+
+    public void transform(AstPass p) {}
+
+    /** P(x) is not a step: the loop has no closed form */
+    boolean addAffineSteps(CountingLoop L) {
+        return false;
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.PAFF, token(), w.token(affecte.token()), w.token(p),
+                      w.token(tokenX));
+    }
+
+    public void compileVm(VmCompiler c) {
+        c.compileP(affecte, x);
+    }
+
+    public void compileJvm(JvmCompiler c) {
+        c.compileP(affecte, x);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.p(affecte, x);
+    }
+
+    public InstCode compileClosure() {
+        int y = affecte.slot, sx = x.slot;
+        return ED -> {
+            int t = ED.intAt(sx);
+            ED.setIntAt(y, t * t - (4 * t) + 1);
+        };
+    }
+
+    public void executeBatch(ColumnarEnv C, boolean mask[]) {
+        int vx[] = C.ints[x.slot], vy[] = C.ints[affecte.slot];
+        for (int i = 0; i < C.n; i++) {
+            int t = vx[i];
+            if (mask[i]) vy[i] = t * t - (4 * t) + 1;
+        }
+    }
+
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {
-        int t = ED.get(x).intValue();
+        int t = ED.getInt(x);
         t = t * t - (4 * t) + 1;
-        ED.set(super.getIdf(), new Value(t));
+        ED.setInt(super.getIdf(), t);
     } 
 }
 
@@ -491,20 +883,72 @@ class CondNode extends  InstNode {
         if (elsepart != null) elsepart.analyse(E);
     }
 
+    public  void resolve(EnvStatique E) { 
+        thecond.resolve(E);
+        thenpart.resolve(E);
+        if (elsepart != null) elsepart.resolve(E);
+    }
+
+    public  void transform(AstPass p) {
+        thecond = thecond.transform(p);
+        thenpart.transform(p);
+        if (elsepart != null) elsepart.transform(p);
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.COND, token(), thecond.save(w), thenpart.save(w),
+                      elsepart == null ? -1 : elsepart.save(w));
+    }
+
     /** Build the control graph of the  conditional
      * instruction */
-    public  ControlGraph buildControlGraph() {
-        if(elsepart == null)
-            return new ControlGraph(thecond, thenpart.buildControlGraph(), null);
-        return new ControlGraph(thecond, thenpart.buildControlGraph(), elsepart.buildControlGraph());
+    public  void appendControlGraph(ControlGraph g) {
+        g.appendCond(thecond, thenpart, elsepart);
+    }
 
+    public  void compileVm(VmCompiler c) {
+        c.compileCond(thecond, thenpart, elsepart);
+    }
+
+    public  void compileJvm(JvmCompiler c) {
+        c.compileCond(thecond, thenpart, elsepart);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.cond(thecond, thenpart, elsepart);
+    }
+
+    public  InstCode compileClosure() {
+        BoolExpr c = thecond.compileBool();
+        InstCode t = thenpart.compileClosure();
+        if (elsepart == null)
+            return ED -> { if (c.eval(ED)) t.execute(ED); };
+        InstCode e = elsepart.compileClosure();
+        return ED -> {
+            if (c.eval(ED)) t.execute(ED);
+            else e.execute(ED);
+        };
+    }
+
+    /** The two parts are executed, each on the lanes where it is taken */
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {
+        boolean c[] = C.boolTemp(), m[] = C.boolTemp();
+        thecond.evaluateBools(C, mask, c);
+        for (int i = 0; i < C.n; i++) m[i] = mask[i] && c[i] && C.alive[i];
+        thenpart.executeBatch(C, m);
+        if (elsepart != null) {
+            for (int i = 0; i < C.n; i++) m[i] = mask[i] && !c[i] && C.alive[i];
+            elsepart.executeBatch(C, m);
+        }
+        C.release(c);
+        C.release(m);
     }
 
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {  
-        if(thecond.evaluate(ED).boolValue()) {
+        if(thecond.evaluateBool(ED)) {
             thenpart.execute(ED);
         } else if(elsepart != null) {
             elsepart.execute(ED);
@@ -525,6 +969,9 @@ class WhileNode extends  InstNode {
     /** A lexical token, that of the word "While" */
     private Token thewhile;
 
+    /** The closed form of the loop, null if it is not a counting loop */
+    private CountingLoop counting;
+
     /** Constructor */
     WhileNode(Token t, ExprNode c, InstsNode b) { 
         super(t); thewhile = t;
@@ -554,16 +1001,72 @@ class WhileNode extends  InstNode {
         body.analyse(E);
     }
 
+    public  void resolve(EnvStatique E) { 
+        thecond.resolve(E);
+        body.resolve(E);
+        counting = CountingLoop.recognize(thecond, body);
+    }
+
+    public  void transform(AstPass p) {
+        thecond = thecond.transform(p);
+        body.transform(p);
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.WHILE, token(), thecond.save(w), body.save(w));
+    }
+
     /** Build the control graph of the loop instruction */
-    public  ControlGraph buildControlGraph() {
-        return new ControlGraph(thecond, body.buildControlGraph());
+    public  void appendControlGraph(ControlGraph g) {
+        g.appendWhile(thecond, body);
+    }
+
+    public  void compileVm(VmCompiler c) {
+        c.compileWhile(thecond, body);
+    }
+
+    public  void compileJvm(JvmCompiler c) {
+        c.compileWhile(thecond, body);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.loop(thecond, body, counting);
+    }
+
+    public  InstCode compileClosure() {
+        BoolExpr c = thecond.compileBool();
+        InstCode b = body.compileClosure();
+        CountingLoop L = counting;
+        if (L != null)
+            return ED -> {
+                if (L.run(ED)) return;
+                while (c.eval(ED)) b.execute(ED);
+            };
+        return ED -> {
+            while (c.eval(ED)) b.execute(ED);
+        };
+    }
+
+    /** The loop goes on while the condition holds on one lane at least */
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {
+        boolean c[] = C.boolTemp(), m[] = C.boolTemp();
+        System.arraycopy(mask, 0, m, 0, C.n);
+        while (true) {
+            thecond.evaluateBools(C, m, c);
+            for (int i = 0; i < C.n; i++) m[i] = m[i] && c[i] && C.alive[i];
+            if (!ColumnarEnv.any(m)) break;
+            body.executeBatch(C, m);
+        }
+        C.release(c);
+        C.release(m);
     }
 
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {  
-        while(thecond.evaluate(ED).boolValue()) {
+        if (counting != null && counting.run(ED)) return;
+        while(thecond.evaluateBool(ED)) {
             body.execute(ED);
         }
     } 
@@ -592,13 +1095,20 @@ class ReadNode extends  InstNode {
         read = new Idf(r);
     }
 
+    /** Constructor for an instruction loaded analysed (see AstFile) */
+    ReadNode(Token t, Token r, Type type) {
+        this(t, r);
+        this.t = type;
+    }
+
     public String toString() { 
         return super.toString() + " " + tr.toString();
     }
 
     /** Static analysis(types) 
      * @param E static environment 
-     * @throws AnalyseException when the identifier is not declared
+     * @throws AnalyseException when the identifier is not declared, or
+     * is not an INT (only integers are read)
      */
     public  void analyse(EnvStatique E) { 
         if (!E.exists(read))
@@ -606,23 +1116,71 @@ class ReadNode extends  InstNode {
                 ("Undeclared identifier " + read + " line " + 
                  read.beginLine());
         t = E.getType(read);
+        if (t != Type.INT)
+            throw new AnalyseException 
+                ("Identifier " + read + " line " + read.beginLine() + 
+                 " should be an INT");
+    }
+
+    public  void resolve(EnvStatique E) { 
+        read.resolve(E);
+    }
+
+    public  void transform(AstPass p) {}
+
+    int save(AstWriter w) {
+        return w.node(AstFile.READ, token(), w.token(tr), t.ordinal());
     }
         
     /** Build the control graph of the sequence of the read instruction */
-    public  ControlGraph buildControlGraph() { 
+    public  void appendControlGraph(ControlGraph g) { 
         // A READ instruction is similar to an assigment, where the
         // lhs is the identifier, and the rhs is a null expression.
         // We use the special constructor for READ 
-        return new ControlGraph(new AffNode(tt, tr, new ExprNode(tt)));
+        g.appendAssign(new AffNode(tt, tr, new ExprNode(tt)));
+    }
+
+    public  void compileVm(VmCompiler c) {
+        c.compileRead(read);
+    }
+
+    public  void compileJvm(JvmCompiler c) {
+        c.compileRead(read);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.read(read);
     }
+
+    public  InstCode compileClosure() {
+        int x = read.slot;
+        String name = read.toString();
+        return ED -> ED.setIntAt(x, readInt(name));
+    }
+
+    /** Each lane reads the next value of its tuple */
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {
+        int x[] = C.ints[read.slot];
+        String name = read.toString();
+        for (int i = 0; i < C.n; i++)
+            if (mask[i]) x[i] = C.read(i, name);
+    }
+
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {
-        System.out.print("... read " + read.toString() + " (INT) : ");
-        Scanner sc = new Scanner(System.in);
-        ED.set(read, new Value(Integer.parseInt(sc.nextLine())));
-        // QUESTION
+        ED.setInt(read, readInt(read.toString()));
+    }
+
+    /**
+     * Read an integer from the input of the current session
+     * @param name the name of the variable, for the prompt
+     */
+    static int readInt(String name) {
+        Session s = Session.current();
+        if (s.input.prompts()) s.output.flush();
+        return s.input.readInt(name);
     }
 
 }
@@ -637,6 +1195,9 @@ class WriteNode extends  InstNode {
     /** A lexical token, that of the word "write" */
     private Token tt;
 
+    /** The number of the write instruction, set by the resolution */
+    private int site;
+
     /** Constructor */
     WriteNode(Token t, ExprNode w) {
         super(t);
@@ -644,6 +1205,9 @@ class WriteNode extends  InstNode {
         written = w;
     }
 
+    /** Get the expression written */
+    public ExprNode getExpr() { return written; }
+
     public String toString() { 
         return super.toString() + " " + written.toString();
     }
@@ -655,21 +1219,77 @@ class WriteNode extends  InstNode {
         written.theType(E);
     }
 
+    public  void resolve(EnvStatique E) { 
+        written.resolve(E);
+        site = E.newWriteSite();
+    }
+
+    public  void transform(AstPass p) {
+        written = written.transform(p);
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.WRITE, token(), written.save(w));
+    }
+
     /** Build the control graph of the sequence of the write instruction */
-    public  ControlGraph buildControlGraph() { 
+    public  void appendControlGraph(ControlGraph g) { 
         // A WRITE instruction is similar to an assigment, where the
         // lhs is a dummy variable, and the rhs is the expression to be written
         // but this is useless for the analysis, and creating a dummy variable is a bit
         // complex (with its type, ...). So we replace a write by a "true" transition 
-        return new ControlGraph(this);
+        g.appendWrite(this);
+    }
+
+    public  void compileVm(VmCompiler c) {
+        c.compileWrite(written);
+    }
+
+    public  void compileJvm(JvmCompiler c) {
+        c.compileWrite(written);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.write(written);
+    }
+
+    public  InstCode compileClosure() {
+        OutputSink out = Session.current().output;
+        if (written.type == Type.BOOL) {
+            BoolExpr e = written.compileBool();
+            return ED -> out.writeBool(e.eval(ED));
+        }
+        IntExpr e = written.compileInt();
+        return ED -> out.writeInt(e.eval(ED));
+    }
+
+    /** The values go to the column of this write site */
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {
+        WriteColumn w = C.column(site, written.type);
+        if (written.type == Type.BOOL) {
+            boolean v[] = C.boolTemp();
+            written.evaluateBools(C, mask, v);
+            for (int i = 0; i < C.n; i++)
+                if (mask[i] && C.alive[i]) w.add(i, v[i] ? 1 : 0);
+            C.release(v);
+        }
+        else {
+            int v[] = C.intTemp();
+            written.evaluateInts(C, mask, v);
+            for (int i = 0; i < C.n; i++)
+                if (mask[i] && C.alive[i]) w.add(i, v[i]);
+            C.release(v);
+        }
     }
 
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {
-        Value v = written.evaluate(ED);
-        System.out.println("... " + (v.isBool() ? v.boolValue() : v.intValue()));
+        if (written.type == Type.BOOL)
+            Session.current().output.writeBool(written.evaluateBool(ED));
+        else
+            Session.current().output.writeInt(written.evaluateInt(ED));
     } 
 }
 
@@ -688,11 +1308,22 @@ class AssertNode extends  InstNode {
     /** A lexical token, that of the word "assert" */
     Token theAssert;
 
+    /** The printable form of the assertion as written, for the
+     *  messages (the expression may be optimized) */
+    private String text;
+
     /** Constructor */
     AssertNode(Token t, ExprNode a) {
         super(t);
         tt = t;
         asserted = a;
+        text = a.toString();
+    }
+
+    /** Constructor for an instruction loaded analysed (see AstFile) */
+    AssertNode(Token t, ExprNode a, String text) {
+        this(t, a);
+        this.text = text;
     }
 
     public String toString() { 
@@ -710,17 +1341,57 @@ class AssertNode extends  InstNode {
                  theAssert.beginLine + " column " + theAssert.beginColumn);
     }
 
+    public  void resolve(EnvStatique E) { 
+        asserted.resolve(E);
+    }
+
+    public  void transform(AstPass p) {
+        asserted = asserted.transform(p);
+    }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.ASSERT, token(), w.string(text), asserted.save(w));
+    }
+
     /** Build the control graph of the assert instruction */
-    public  ControlGraph buildControlGraph() {
-        return new ControlGraph(this);
+    public  void appendControlGraph(ControlGraph g) {
+        g.appendAssert(this);
+    }
+
+    public  void compileVm(VmCompiler c) {
+        c.compileAssert(asserted, text);
+    }
+
+    public  void compileJvm(JvmCompiler c) {
+        c.compileAssert(asserted, text);
+    }
+
+    int flatten(FlatBuilder f) {
+        return f.assertion(asserted, text);
+    }
+
+    public  InstCode compileClosure() {
+        BoolExpr e = asserted.compileBool();
+        OutputSink out = Session.current().output;
+        String assertion = text;
+        return ED -> { if (!e.eval(ED)) out.assertionFailed(assertion); };
+    }
+
+    /** The failed assertions are counted by lane */
+    public  void executeBatch(ColumnarEnv C, boolean mask[]) {
+        boolean v[] = C.boolTemp();
+        asserted.evaluateBools(C, mask, v);
+        for (int i = 0; i < C.n; i++)
+            if (mask[i] && C.alive[i] && !v[i]) C.failures[i]++;
+        C.release(v);
     }
 
     /** 
      * Execution
      */
     public void execute(EnvDynamique ED) {
-        if(!asserted.evaluate(ED).boolValue())
-            System.out.println(" [!] Assertion failed for " + asserted.toString());
+        if(!asserted.evaluateBool(ED))
+            Session.current().output.assertionFailed(text);
     } 
 }
 
@@ -750,6 +1421,9 @@ class ExprNode extends MiniLgNode {
 
     /** Two sub-expressions, may be null */
     ExprNode fg, fd = null;
+
+    /** The type of the expression, computed by theType */
+    Type type;
     
     /** Constructor for leaves=int constants 
      * @param t the token of the constant 
@@ -827,61 +1501,350 @@ class ExprNode extends MiniLgNode {
         }
     }
 
-    // hileef
-
+    /**
+     * Evaluation, when the type of the expression is not known by the
+     * caller. The result is built from evaluateInt or evaluateBool,
+     * chosen according to the type computed by the analysis.
+     */
     Value evaluate(EnvDynamique ED) {
+        if (type == Type.BOOL)
+            return new Value(evaluateBool(ED));
+        return new Value(evaluateInt(ED));
+    }
+
+    /**
+     * Evaluation of an expression of type INT
+     */
+    int evaluateInt(EnvDynamique ED) {
         switch(theKind) {
             case BINARY:
                 switch(operator.theOp) {
                     case PLUS:
-                        return new Value(fg.evaluate(ED).intValue() + fd.evaluate(ED).intValue());
+                        return fg.evaluateInt(ED) + fd.evaluateInt(ED);
                     case MULT:
-                        return new Value(fg.evaluate(ED).intValue() * fd.evaluate(ED).intValue());
+                        return fg.evaluateInt(ED) * fd.evaluateInt(ED);
                     case MOINS:
-                        return new Value(fg.evaluate(ED).intValue() - fd.evaluate(ED).intValue());
+                        return fg.evaluateInt(ED) - fd.evaluateInt(ED);
                     case DIV:
-                        return new Value(fg.evaluate(ED).intValue() / fd.evaluate(ED).intValue());
+                        return fg.evaluateInt(ED) / fd.evaluateInt(ED);
+                    default :
+                        throw new InternalException(" ! Switch case unhandled ");
+                }
+            case IDF:
+                return ED.getInt(idf);
+            case INTCONST:
+                return value;
+            case UNARY:
+                switch(operator.theOp) {
+                    case PLUS: /* pas necessaire mais au cas ou */
+                        return + fg.evaluateInt(ED);
+                    case MOINS:
+                        return - fg.evaluateInt(ED);
+                    default :
+                        throw new InternalException(" ! Switch case unhandled ");
+                }
+            case READ:
+                System.out.println(" READ ! in expression ");
+                throw new InternalException(" ! Switch case unhandled ");
+            default:
+                throw new InternalException(" ! Switch case unhandled ");
+        }
+    }
+
+    /**
+     * Evaluation of an expression of type BOOL
+     */
+    boolean evaluateBool(EnvDynamique ED) {
+        switch(theKind) {
+            case BINARY:
+                switch(operator.theOp) {
                     case AND:
-                        return new Value(fg.evaluate(ED).boolValue() && fd.evaluate(ED).boolValue());
+                        return fg.evaluateBool(ED) && fd.evaluateBool(ED);
                     case OR:
-                        return new Value(fg.evaluate(ED).boolValue() || fd.evaluate(ED).boolValue());
+                        return fg.evaluateBool(ED) || fd.evaluateBool(ED);
                     case SUP:
-                        return new Value(fg.evaluate(ED).intValue() > fd.evaluate(ED).intValue());
+                        return fg.evaluateInt(ED) > fd.evaluateInt(ED);
                     case INF:
-                        return new Value(fg.evaluate(ED).intValue() < fd.evaluate(ED).intValue());
+                        return fg.evaluateInt(ED) < fd.evaluateInt(ED);
                     case EGAL:
-                        Value fgt = fg.evaluate(ED);
-                        if(fgt.isBool())
-                            return new Value(fgt.boolValue() == fd.evaluate(ED).boolValue());
-                        else return new Value(fgt.intValue() == fd.evaluate(ED).intValue());
+                        if(fg.type == Type.BOOL)
+                            return fg.evaluateBool(ED) == fd.evaluateBool(ED);
+                        else return fg.evaluateInt(ED) == fd.evaluateInt(ED);
                     default :
                         throw new InternalException(" ! Switch case unhandled ");
                 }
             case BOOLCONST:
-                return new Value( operator.theOp == OperatorKind.TRUE );
+                return operator.theOp == OperatorKind.TRUE;
             case IDF:
-                return ED.get(idf);
-            case INTCONST:
-                return new Value(value);
+                return ED.getBool(idf);
             case UNARY:
+                if (operator.theOp == OperatorKind.NOT)
+                    return ! fg.evaluateBool(ED);
+                throw new InternalException(" ! Switch case unhandled ");
+            case READ:
+                System.out.println(" READ ! in expression ");
+                throw new InternalException(" ! Switch case unhandled ");
+            default:
+                throw new InternalException(" ! Switch case unhandled ");
+        }
+    }
+
+    /**
+     * Translation into a closure, for an expression of type INT.
+     * The operations on a variable and a variable or a constant are
+     * specialized.
+     */
+    IntExpr compileInt() {
+        switch(theKind) {
+            case INTCONST: {
+                int k = value;
+                return ED -> k;
+            }
+            case IDF: {
+                int x = idf.slot;
+                return ED -> ED.intAt(x);
+            }
+            case UNARY: {
+                IntExpr a = fg.compileInt();
                 switch(operator.theOp) {
-                    case PLUS: /* pas necessaire mais au cas ou */
-                        return new Value( + fg.evaluate(ED).intValue() );
+                    case PLUS:
+                        return a;
                     case MOINS:
-                        return new Value( - fg.evaluate(ED).intValue() );
-                    case NOT:
-                        return new Value( ! fg.evaluate(ED).boolValue() );
+                        return ED -> - a.eval(ED);
                     default :
                         throw new InternalException(" ! Switch case unhandled ");
+                }
+            }
+            case BINARY: {
+                IntExpr a = fg.compileInt(), b = fd.compileInt();
+                int x = fg.theKind == Kind.IDF ? fg.idf.slot : -1;
+                int y = fd.theKind == Kind.IDF ? fd.idf.slot : -1;
+                boolean constant = fd.theKind == Kind.INTCONST;
+                int k = fd.value;
+                switch(operator.theOp) {
+                    case PLUS:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) + ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) + k;
+                        return ED -> a.eval(ED) + b.eval(ED);
+                    case MOINS:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) - ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) - k;
+                        return ED -> a.eval(ED) - b.eval(ED);
+                    case MULT:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) * ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) * k;
+                        return ED -> a.eval(ED) * b.eval(ED);
+                    case DIV:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) / ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) / k;
+                        return ED -> a.eval(ED) / b.eval(ED);
+                    default :
+                        throw new InternalException(" ! Switch case unhandled ");
+                }
+            }
+            default:
+                throw new InternalException(" ! Switch case unhandled ");
+        }
+    }
 
+    /**
+     * Translation into a closure, for an expression of type BOOL.
+     * The comparisons of a variable with a variable or a constant are
+     * specialized.
+     */
+    BoolExpr compileBool() {
+        switch(theKind) {
+            case BOOLCONST: {
+                boolean k = operator.theOp == OperatorKind.TRUE;
+                return ED -> k;
+            }
+            case IDF: {
+                int x = idf.slot;
+                return ED -> ED.boolAt(x);
+            }
+            case UNARY: {
+                if (operator.theOp != OperatorKind.NOT)
+                    throw new InternalException(" ! Switch case unhandled ");
+                BoolExpr a = fg.compileBool();
+                return ED -> ! a.eval(ED);
+            }
+            case BINARY: {
+                switch(operator.theOp) {
+                    case AND: {
+                        BoolExpr a = fg.compileBool(), b = fd.compileBool();
+                        return ED -> a.eval(ED) && b.eval(ED);
+                    }
+                    case OR: {
+                        BoolExpr a = fg.compileBool(), b = fd.compileBool();
+                        return ED -> a.eval(ED) || b.eval(ED);
+                    }
+                    case EGAL:
+                        if (fg.type == Type.BOOL) {
+                            BoolExpr a = fg.compileBool(), b = fd.compileBool();
+                            return ED -> a.eval(ED) == b.eval(ED);
+                        }
+                        break;
+                    case SUP:
+                    case INF:
+                        break;
+                    default :
+                        throw new InternalException(" ! Switch case unhandled ");
                 }
-            case READ:
-                System.out.println(" READ ! in expression ");
+                IntExpr a = fg.compileInt(), b = fd.compileInt();
+                int x = fg.theKind == Kind.IDF ? fg.idf.slot : -1;
+                int y = fd.theKind == Kind.IDF ? fd.idf.slot : -1;
+                boolean constant = fd.theKind == Kind.INTCONST;
+                int k = fd.value;
+                switch(operator.theOp) {
+                    case SUP:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) > ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) > k;
+                        return ED -> a.eval(ED) > b.eval(ED);
+                    case INF:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) < ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) < k;
+                        return ED -> a.eval(ED) < b.eval(ED);
+                    default:
+                        if (x >= 0 && y >= 0) return ED -> ED.intAt(x) == ED.intAt(y);
+                        if (x >= 0 && constant) return ED -> ED.intAt(x) == k;
+                        return ED -> a.eval(ED) == b.eval(ED);
+                }
+            }
             default:
                 throw new InternalException(" ! Switch case unhandled ");
         }
     }
 
+    /**
+     * Evaluation in columns, for an expression of type INT: r receives
+     * the values on the lanes of the mask (the other lanes are not
+     * significant). The operations are loops over whole columns, except
+     * the division, which stops the lanes where the divisor is 0.
+     */
+    void evaluateInts(ColumnarEnv C, boolean mask[], int r[]) {
+        int n = C.n;
+        switch(theKind) {
+            case INTCONST:
+                Arrays.fill(r, value);
+                return;
+            case IDF:
+                System.arraycopy(C.ints[idf.slot], 0, r, 0, n);
+                return;
+            case UNARY:
+                fg.evaluateInts(C, mask, r);
+                if (operator.theOp == OperatorKind.MOINS)
+                    for (int i = 0; i < n; i++) r[i] = - r[i];
+                else if (operator.theOp != OperatorKind.PLUS)
+                    throw new InternalException(" ! Switch case unhandled ");
+                return;
+            case BINARY: {
+                fg.evaluateInts(C, mask, r);
+                int b[] = fd.theKind == Kind.IDF ? C.ints[fd.idf.slot] : C.intTemp();
+                if (fd.theKind != Kind.IDF) fd.evaluateInts(C, mask, b);
+                switch(operator.theOp) {
+                    case PLUS:
+                        for (int i = 0; i < n; i++) r[i] += b[i];
+                        break;
+                    case MOINS:
+                        for (int i = 0; i < n; i++) r[i] -= b[i];
+                        break;
+                    case MULT:
+                        for (int i = 0; i < n; i++) r[i] *= b[i];
+                        break;
+                    case DIV:
+                        for (int i = 0; i < n; i++) {
+                            if (!mask[i]) continue;
+                            if (b[i] == 0) {
+                                C.fail(i, "Division by zero");
+                                r[i] = 0;
+                            }
+                            else r[i] /= b[i];
+                        }
+                        break;
+                    default :
+                        throw new InternalException(" ! Switch case unhandled ");
+                }
+                if (fd.theKind != Kind.IDF) C.release(b);
+                return;
+            }
+            default:
+                throw new InternalException(" ! Switch case unhandled ");
+        }
+    }
+
+    /**
+     * Evaluation in columns, for an expression of type BOOL (see
+     * evaluateInts). The right operand of AND (resp. OR) is evaluated
+     * only on the lanes where the left one is true (resp. false).
+     */
+    void evaluateBools(ColumnarEnv C, boolean mask[], boolean r[]) {
+        int n = C.n;
+        switch(theKind) {
+            case BOOLCONST:
+                Arrays.fill(r, operator.theOp == OperatorKind.TRUE);
+                return;
+            case IDF:
+                System.arraycopy(C.bools[idf.slot], 0, r, 0, n);
+                return;
+            case UNARY:
+                if (operator.theOp != OperatorKind.NOT)
+                    throw new InternalException(" ! Switch case unhandled ");
+                fg.evaluateBools(C, mask, r);
+                for (int i = 0; i < n; i++) r[i] = ! r[i];
+                return;
+            case BINARY:
+                break;
+            default:
+                throw new InternalException(" ! Switch case unhandled ");
+        }
+        switch(operator.theOp) {
+            case AND:
+            case OR: {
+                boolean and = operator.theOp == OperatorKind.AND;
+                fg.evaluateBools(C, mask, r);
+                boolean m[] = C.boolTemp(), b[] = C.boolTemp();
+                for (int i = 0; i < n; i++) m[i] = mask[i] && r[i] == and;
+                if (ColumnarEnv.any(m)) {
+                    fd.evaluateBools(C, m, b);
+                    for (int i = 0; i < n; i++) if (m[i]) r[i] = b[i];
+                }
+                C.release(m);
+                C.release(b);
+                return;
+            }
+            case EGAL:
+                if (fg.type == Type.BOOL) {
+                    boolean b[] = C.boolTemp();
+                    fg.evaluateBools(C, mask, r);
+                    fd.evaluateBools(C, mask, b);
+                    for (int i = 0; i < n; i++) r[i] = r[i] == b[i];
+                    C.release(b);
+                    return;
+                }
+                break;
+            case SUP:
+            case INF:
+                break;
+            default :
+                throw new InternalException(" ! Switch case unhandled ");
+        }
+        int a[] = C.intTemp(), b[] = C.intTemp();
+        fg.evaluateInts(C, mask, a);
+        fd.evaluateInts(C, mask, b);
+        switch(operator.theOp) {
+            case SUP:
+                for (int i = 0; i < n; i++) r[i] = a[i] > b[i];
+                break;
+            case INF:
+                for (int i = 0; i < n; i++) r[i] = a[i] < b[i];
+                break;
+            default:
+                for (int i = 0; i < n; i++) r[i] = a[i] == b[i];
+        }
+        C.release(a);
+        C.release(b);
+    }
+
     /** 
      * result for getSimpleExpr when the expression has the expected form
      *(null otherwise).
@@ -976,6 +1939,11 @@ class ExprNode extends MiniLgNode {
      * @throws AnalyseException if there is a typing error
      */
     public Type theType(EnvStatique E) {
+        type = computeType(E);
+        return type;
+    }
+
+    private Type computeType(EnvStatique E) {
         //System.err.println("Expression typing " + this);
 
         switch(theKind){
@@ -1046,6 +2014,53 @@ class ExprNode extends MiniLgNode {
         }        
     }
 
+    /** Resolution of the identifiers of the expression
+     * @param E a static environment(types)
+     */
+    public void resolve(EnvStatique E) {
+        if (idf != null) idf.resolve(E);
+        if (fg != null) fg.resolve(E);
+        if (fd != null) fd.resolve(E);
+    }
+
+    /**
+     * Optimization: the sub-expressions are transformed, then the
+     * expression is rewritten by the pass
+     * @return the expression to use instead of this one
+     */
+    ExprNode transform(AstPass p) {
+        if (fg != null) fg = fg.transform(p);
+        if (fd != null) fd = fd.transform(p);
+        return p.rewrite(this);
+    }
+
+    /**
+     * Write the expression in binary form (see AstFile), with its kind,
+     * its type, its value, its identifier and its sub-expressions
+     * @return the index of its node
+     */
+    int save(AstWriter w) {
+        return w.node(AstFile.EXPR, operatorToken, theKind.ordinal(),
+                      type == null ? -1 : type.ordinal(), value,
+                      idf == null ? -1 : w.token(idf.token()),
+                      fg == null ? -1 : fg.save(w), fd == null ? -1 : fd.save(w));
+    }
+
+    /** An expression loaded from its operands (see save) */
+    static ExprNode load(Token t, int n[], Token tokens[], Object nodes[]) {
+        ExprNode e;
+        switch (Kind.values()[n[2]]) {
+        case INTCONST: e = new ExprNode(t, n[4]); break;
+        case BOOLCONST: e = new ExprNode(t, true); break;
+        case READ: e = new ExprNode(t); break;
+        case IDF: e = new ExprNode(t, new Idf(tokens[n[5]])); break;
+        case UNARY: e = new ExprNode(t, (ExprNode)nodes[n[6]]); break;
+        default: e = new ExprNode(t, (ExprNode)nodes[n[6]], (ExprNode)nodes[n[7]]);
+        }
+        e.type = n[3] < 0 ? null : Type.values()[n[3]];
+        return e;
+    }
+
     public static ExprNode buildNotNode(ExprNode c) {
         return  new ExprNode(Token.newToken(LgConstants.NOT,
                                             LgConstants.tokenImage[LgConstants.NOT]),
@@ -1081,6 +2096,13 @@ class DeclsNode extends MiniLgNode {
         return s;
     } 
 
+    int save(AstWriter w) {
+        int n[] = new int[decls.size()], k = 0;
+        for (DeclNode d : decls)
+            n[k++] = d.save(w);
+        return w.node(AstFile.DECLS, token(), n);
+    }
+
     /** 
      * Builds the symbol table 
      * @throws AnalyseException if there is a double declaration of a variable
@@ -1133,6 +2155,16 @@ class DeclNode  extends MiniLgNode {
         }
         return s + ": " + type.toString();
     }
+
+    /** Write the declaration in binary form: the type, and the
+     *  identifiers */
+    int save(AstWriter w) {
+        int n[] = new int[lidfs.size() + 1], k = 0;
+        n[k++] = type.save(w);
+        for (Idf idf : lidfs)
+            n[k++] = w.token(idf.token());
+        return w.node(AstFile.DECL, token(), n);
+    }
 }
 
 
@@ -1161,17 +2193,21 @@ class TypeNode  extends MiniLgNode {
 
     /** Get the type */
     public Type getType() { return type; }
+
+    int save(AstWriter w) {
+        return w.node(AstFile.TYPE, token());
+    }
 }
 
+/** Indentation of the printable forms, in the current session */
 class Idt {
-    private static int level = 0;
-    public static void reset() { level = 0; }
-    public static void inc() { level++; }
-    public static void dec() { level--; }
-    public static int get() { return level; }
+    public static void reset() { Session.current().indentLevel = 0; }
+    public static void inc() { Session.current().indentLevel++; }
+    public static void dec() { Session.current().indentLevel--; }
+    public static int get() { return Session.current().indentLevel; }
     public static String str() {
         String s = "";
-        for(int i = 0; i < level ; i++) s += "   ";
+        for(int i = 0; i < get() ; i++) s += "   ";
         return s;
     }
 }
\ No newline at end of file
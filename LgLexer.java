@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+
+/**
+ * A lexer driven by the table of a DFA over the tokens of Lg.jj, which
+ * gives the tokens as arrays (see TokenArray) instead of a chain of
+ * Token objects.
+ * <p>
+ * The table is built once: the literal tokens ("program", ":=", ...,
+ * from the images generated by javacc) are added as a tree of states,
+ * over the states of the identifiers, the numbers, the spaces and the
+ * comments. The tokens are the longest matches, as with LgTokenManager,
+ * and a keyword is preferred to an identifier of the same text.
+ */
+class LgLexer {
+
+    /** The characters of the table: ASCII, and one for all the others,
+     *  allowed in the comments */
+    private static final int CHARS = 129;
+
+    /** The states without transition, and the first state */
+    private static final int DEAD = 0, START = 1;
+
+    /** The kind accepted in a state: none, or skipped */
+    private static final int NONE = -1, SKIP = -2;
+
+    /** The next state, at state * CHARS + character */
+    private static int next[] = new int[0];
+
+    /** The kind accepted in each state */
+    private static int accept[] = new int[0];
+
+    private static int states = 0;
+
+    /** The states added for the literals, after the others */
+    private static int firstLiteral;
+
+    static {
+        newState(NONE);                         // DEAD
+        newState(NONE);                         // START
+
+        int idf = newState(LgConstants.IDF);
+        int number = newState(LgConstants.INTPOS);
+        for (char c = 'a'; c <= 'z'; c++) {
+            set(START, c, idf);
+            set(START, Character.toUpperCase(c), idf);
+            set(idf, c, idf);
+            set(idf, Character.toUpperCase(c), idf);
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            set(START, c, number);
+            set(idf, c, idf);
+            set(number, c, number);
+        }
+
+        int space = newState(SKIP);
+        for (char c : " \t\n\r".toCharArray()) {
+            set(START, c, space);
+            set(space, c, space);
+        }
+
+        firstLiteral = states;
+        for (int k = 0; k < LgTokenManager.jjstrLiteralImages.length; k++) {
+            String im = LgTokenManager.jjstrLiteralImages[k];
+            if (im != null && !im.isEmpty()) addLiteral(im, k);
+        }
+
+        // "//" up to the end of the line, included
+        int div = get(START, '/');
+        int line = newState(NONE), cr = newState(SKIP), lf = newState(SKIP);
+        set(div, '/', line);
+        for (int c = 0; c < CHARS; c++) set(line, c, line);
+        set(line, '\n', lf);
+        set(line, '\r', cr);
+        set(cr, '\n', lf);
+
+        // "/*" up to "*/"
+        int inside = newState(NONE), star = newState(NONE), closed = newState(SKIP);
+        set(div, '*', inside);
+        for (int c = 0; c < CHARS; c++) {
+            set(inside, c, inside);
+            set(star, c, inside);
+        }
+        set(inside, '*', star);
+        set(star, '*', star);
+        set(star, '/', closed);
+    }
+
+    private static int newState(int kind) {
+        if ((states + 1) * CHARS > next.length) {
+            next = Arrays.copyOf(next, Math.max(64, 2 * states) * CHARS);
+            accept = Arrays.copyOf(accept, Math.max(64, 2 * states));
+        }
+        accept[states] = kind;
+        return states++;
+    }
+
+    private static int get(int s, int c) {
+        return next[s * CHARS + c];
+    }
+
+    private static void set(int s, int c, int t) {
+        next[s * CHARS + c] = t;
+    }
+
+    /**
+     * Add a literal token. The states of the literal are copies of the
+     * states reached by its prefixes (those of an identifier, for a
+     * keyword), so that the other tokens are still recognized.
+     */
+    private static void addLiteral(String im, int kind) {
+        int s = START;
+        for (int i = 0; i < im.length(); i++) {
+            int c = im.charAt(i);
+            int t = get(s, c);
+            if (t < firstLiteral) {
+                int u = newState(accept[t]);
+                System.arraycopy(next, t * CHARS, next, u * CHARS, CHARS);
+                set(s, c, u);
+                t = u;
+            }
+            s = t;
+        }
+        accept[s] = kind;
+    }
+
+    /** The tokens of a file, mapped in memory */
+    static TokenArray lex(Path file) throws IOException {
+        return lex(MappedCharStream.map(file));
+    }
+
+    /**
+     * The tokens of the bytes of a buffer, from its position to its limit
+     * @throws TokenMgrError for a character that begins no token
+     */
+    static TokenArray lex(ByteBuffer b) {
+        ByteBuffer source = b.slice();
+        int size = source.limit();
+        TokenArray tokens = new TokenArray(source, size);
+        int p = 0;
+        while (p < size) {
+            int s = START, q = p, kind = NONE, last = p;
+            while (q < size) {
+                int c = Math.min(source.get(q) & 0xFF, CHARS - 1);
+                s = next[s * CHARS + c];
+                if (s == DEAD) break;
+                q++;
+                if (accept[s] != NONE) {
+                    kind = accept[s];
+                    last = q;
+                }
+            }
+            if (kind == NONE) throw error(tokens, source, size, p, q);
+            if (kind != SKIP) tokens.add(kind, p, last);
+            p = last;
+        }
+        tokens.add(LgConstants.EOF, size, size);
+        return tokens;
+    }
+
+    /**
+     * The error of LgTokenManager, for a token from p stopped by the
+     * character at q, or by the end of the input. LgTokenManager reads
+     * one character after the one which stops it: at the end of the
+     * input, the error is after the last character.
+     */
+    private static TokenMgrError error(TokenArray tokens, ByteBuffer source, int size,
+                                       int p, int q) {
+        if (q + 1 < size)
+            return new TokenMgrError(false, 0, tokens.line(q), tokens.column(q),
+                                     TokenArray.text(source, p, q),
+                                     (char)(source.get(q) & 0xFF),
+                                     TokenMgrError.LEXICAL_ERROR);
+        int last = Math.min(q, size - 1);
+        char c = (char)(source.get(last) & 0xFF);
+        int line = tokens.line(last), column = tokens.column(last) + 1;
+        if (c == '\n' || c == '\r') {
+            line++;
+            column = 0;
+        }
+        String after = last == p ? "" : TokenArray.text(source, p, last + 1);
+        return new TokenMgrError(true, 0, line, column, after, c,
+                                 TokenMgrError.LEXICAL_ERROR);
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Vectorized driver: runs one program over many input tuples at once
+ * (see ProgNode.executeBatch).
+ * <p>
+ * Usage: java LgVector [-o results] [-ffb] program.ff tuples.txt
+ * <p>
+ * Each line of the tuples file is one tuple: the integers read by one
+ * execution, in order, separated by white space. For each tuple, one
+ * record is written (see ColumnarEnv.toString), with the status of
+ * the execution, the number of failed assertions, and the values
+ * written by each write instruction of the program. With -ffb, the
+ * program is loaded from its binary form (see AstFile).
+ */
+public class LgVector {
+
+    /** The tuples of a file, one per non-empty line */
+    static int[][] tuples(Path file) throws IOException {
+        List<int[]> l = new ArrayList<int[]>();
+        for (String line : Files.readAllLines(file)) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String f[] = line.split("\\s+");
+            int t[] = new int[f.length];
+            for (int i = 0; i < f.length; i++) t[i] = Integer.parseInt(f[i]);
+            l.add(t);
+        }
+        return l.toArray(new int[l.size()][]);
+    }
+
+    public static void main(String args[]) throws Exception {
+        String output = null;
+        boolean precompiled = false;
+        int i = 0;
+        for (; i < args.length - 2; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length - 2)
+                output = args[++i];
+            else if (args[i].equals("-ffb"))
+                precompiled = true;
+            else
+                break;
+        }
+        if (args.length - i != 2) {
+            System.err.println("Usage : java LgVector [-o results] [-ffb] program.ff tuples.txt");
+            return;
+        }
+        int inputs[][] = tuples(Paths.get(args[i + 1]));
+
+        PrintStream console = System.out;
+        PrintStream out = output == null ? console
+            : new PrintStream(new BufferedOutputStream(new FileOutputStream(output)));
+
+        Session.begin().traces = false;
+        try {
+            ProgNode m;
+            if (precompiled)
+                m = AstFile.program(Paths.get(args[i]));
+            else {
+                Lg parser = new Lg(Paths.get(args[i]));
+                m = parser.program();
+                m.analyse();
+            }
+            long start = System.nanoTime();
+            ColumnarEnv C = m.executeBatch(inputs);
+            long millis = (System.nanoTime() - start) / 1000000;
+            out.print(C);
+            out.flush();
+            console.println(inputs.length + " tuples, " + C.errors + " failures, "
+                + millis + " ms");
+        }
+        finally {
+            if (out != console) out.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * The lines and columns of the characters of a source, one byte per
+ * character, computed on demand from the offsets where the lines begin.
+ * They are the same as with SimpleCharStream: the first line and the
+ * first column are 1, a tab goes to the next multiple of 8, and the
+ * lines end with "\n", "\r" or "\r\n".
+ */
+class LineIndex {
+
+    private static final int TAB_SIZE = 8;
+
+    private final ByteBuffer buffer;
+
+    /** The offsets where the lines begin */
+    private int lineStart[] = new int[256];
+    private int lines = 1;
+
+    /** The last position computed: offset, line, and column */
+    private int lastOffset = -1, lastLine, lastColumn;
+
+    /** An index of the lines of a buffer, added as they are met */
+    LineIndex(ByteBuffer b) {
+        buffer = b;
+    }
+
+    /** The index of all the lines of the first size bytes of a buffer */
+    static LineIndex of(ByteBuffer b, int size) {
+        LineIndex x = new LineIndex(b);
+        for (int i = 0; i < size; i++)
+            if (endsLine(b, i, size)) x.add(i + 1);
+        return x;
+    }
+
+    /** True if the character at i ends a line */
+    static boolean endsLine(ByteBuffer b, int i, int size) {
+        byte c = b.get(i);
+        return c == '\n' || (c == '\r' && (i + 1 == size || b.get(i + 1) != '\n'));
+    }
+
+    /** Add a line, which begins after the last one */
+    void add(int start) {
+        if (lines == lineStart.length)
+            lineStart = Arrays.copyOf(lineStart, 2 * lines);
+        lineStart[lines++] = start;
+    }
+
+    /** The line of a character, or 0 before the first one */
+    int line(int offset) {
+        if (offset < 0) return 0;
+        locate(offset);
+        return lastLine;
+    }
+
+    /** The column of a character, or 0 before the first one */
+    int column(int offset) {
+        if (offset < 0) return 0;
+        locate(offset);
+        return lastColumn;
+    }
+
+    /** The line of a character, by binary search */
+    private int lineOf(int offset) {
+        int lo = 0, hi = lines - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStart[mid] <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo + 1;
+    }
+
+    /**
+     * Compute the line and the column of a character. The positions are
+     * mostly asked in order: they are computed forward from the last
+     * one, and only the positions before it are searched in the index.
+     */
+    private void locate(int offset) {
+        if (offset == lastOffset) return;
+        int i, line, column;
+        if (lastOffset >= 0 && lastOffset < offset) {
+            i = lastOffset + 1;
+            line = lastLine;
+            column = lastColumn;
+        }
+        else {
+            line = lineOf(offset);
+            i = lineStart[line - 1];
+            column = 0;
+        }
+        int next = line < lines ? lineStart[line] : Integer.MAX_VALUE;
+        for (; i <= offset; i++) {
+            if (i == next) {
+                line++;
+                column = 0;
+                next = line < lines ? lineStart[line] : Integer.MAX_VALUE;
+            }
+            if (buffer.get(i) == '\t') column += TAB_SIZE - column % TAB_SIZE;
+            else column++;
+        }
+        lastOffset = offset;
+        lastLine = line;
+        lastColumn = column;
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.*;
+
+
+/**
+ * The live variables at each point of a control graph: the variables
+ * whose current value may be used later, by a condition, by the
+ * right-hand side of an assignment or by a write, before being assigned
+ * again.
+ * <p>
+ * The analysis goes backward, on the reverse edges of the graph, with
+ * a worklist: the live variables before a point are the union, over
+ * its transitions, of (live after - assigned) + used. Nothing is live
+ * at the exit and error points. The sets are bit sets, indexed by the
+ * variables in the order they are met.
+ */
+class Liveness {
+
+    /** The index of each variable */
+    private final Map<Idf, Integer> index = new HashMap<Idf, Integer>();
+
+    /** The variables live at each point */
+    private final Map<ControlPoint, BitSet> liveIn = new HashMap<ControlPoint, BitSet>();
+
+    /** For each label, the variables used and the variable assigned */
+    private final Map<TransitionLabel, BitSet> uses =
+        new IdentityHashMap<TransitionLabel, BitSet>();
+    private final Map<TransitionLabel, Integer> defs =
+        new IdentityHashMap<TransitionLabel, Integer>();
+
+    Liveness(ControlGraph g) {
+        for (ControlPoint cp : g.theControlPoints) {
+            liveIn.put(cp, new BitSet());
+            for (Transition tr : cp.theTransitions) label(tr.theLabel);
+        }
+
+        // backward: the last points first
+        Map<ControlPoint, List<ControlPoint>> preds = g.predecessors();
+        List<ControlPoint> order = g.reversePostorder();
+        Collections.reverse(order);
+        Deque<ControlPoint> worklist = new ArrayDeque<ControlPoint>(order);
+        Set<ControlPoint> queued = new HashSet<ControlPoint>(order);
+        while (!worklist.isEmpty()) {
+            ControlPoint cp = worklist.poll();
+            queued.remove(cp);
+            BitSet in = new BitSet();
+            for (Transition tr : cp.theTransitions) {
+                BitSet b = (BitSet)liveIn.get(tr.theTarget).clone();
+                int d = defs.get(tr.theLabel);
+                if (d >= 0) b.clear(d);
+                b.or(uses.get(tr.theLabel));
+                in.or(b);
+            }
+            if (!in.equals(liveIn.get(cp))) {
+                liveIn.put(cp, in);
+                for (ControlPoint p : preds.get(cp))
+                    if (queued.add(p)) worklist.add(p);
+            }
+        }
+    }
+
+    /** True if the value of a variable at a point may be used */
+    boolean isLive(Idf x, ControlPoint cp) {
+        Integer i = index.get(x);
+        return i != null && liveIn.get(cp).get(i);
+    }
+
+    /** The variables live at a point */
+    Set<Idf> liveAt(ControlPoint cp) {
+        Set<Idf> s = new HashSet<Idf>();
+        BitSet b = liveIn.get(cp);
+        for (Map.Entry<Idf, Integer> e : index.entrySet())
+            if (b.get(e.getValue())) s.add(e.getKey());
+        return s;
+    }
+
+    private int indexOf(Idf x) {
+        Integer i = index.get(x);
+        if (i == null) {
+            i = index.size();
+            index.put(x, i);
+        }
+        return i;
+    }
+
+    /** Record the variables used and assigned by a label */
+    private void label(TransitionLabel l) {
+        if (uses.containsKey(l)) return;
+        BitSet u = new BitSet();
+        int d = -1;
+        if (l.getNature() == NatureTransition.COND) {
+            use(((CondTransition)l).theCond, u);
+            use(((CondTransition)l).written, u);
+        }
+        else {
+            AffNode a = ((AssignTransition)l).theAssign;
+            if (a instanceof PAffNode) u.set(indexOf(((PAffNode)a).x));
+            else use(a.getExpr(), u);
+            d = indexOf(a.getIdf());
+        }
+        uses.put(l, u);
+        defs.put(l, d);
+    }
+
+    /** Add the variables of an expression */
+    private void use(ExprNode e, BitSet u) {
+        if (e == null) return;
+        if (e.theKind == ExprNode.Kind.IDF) u.set(indexOf(e.idf));
+        use(e.fg, u);
+        use(e.fd, u);
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+
+/**
+ * A CharStream over a file mapped in memory, for large programs.
+ * <p>
+ * The file is read as ASCII (ISO-8859-1), one byte per character,
+ * without copy: the characters are taken from the mapping, and only the
+ * images of the tokens are built as strings. The positions are computed
+ * on demand (see LineIndex), from an index of the lines built as the
+ * characters are read.
+ * <p>
+ * The file must be smaller than 2 GB.
+ */
+public class MappedCharStream implements CharStream {
+
+    /** The characters */
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /** The offset of the last character read, and of the first
+     *  character of the current token */
+    private int pos = -1;
+    private int tokenBegin = 0;
+
+    /** The lines, for the characters before scanned */
+    private final LineIndex index;
+    private int scanned = 0;
+
+    /** A stream over a file */
+    public MappedCharStream(Path file) throws IOException {
+        this(map(file));
+    }
+
+    /** A stream over the bytes of a buffer, from its position to its
+     *  limit */
+    public MappedCharStream(ByteBuffer b) {
+        buffer = b.slice();
+        size = buffer.limit();
+        index = new LineIndex(buffer);
+    }
+
+    /** A file mapped in memory, read only */
+    static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long n = ch.size();
+            if (n > Integer.MAX_VALUE)
+                throw new IOException(file + ": too large to be mapped");
+            // the mapping stays valid after the channel is closed
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, n);
+        }
+    }
+
+    public char readChar() throws IOException {
+        if (pos + 1 >= size)
+            throw new IOException("end of input");
+        pos++;
+        if (pos == scanned) scan();
+        return (char)(buffer.get(pos) & 0xFF);
+    }
+
+    /** Index the line that begins after the character at pos, if any */
+    private void scan() {
+        scanned++;
+        if (LineIndex.endsLine(buffer, pos, size)) index.add(pos + 1);
+    }
+
+    public char BeginToken() throws IOException {
+        tokenBegin = pos + 1;
+        try {
+            return readChar();
+        }
+        catch (IOException e) {
+            // the end of the input is positioned on the last character
+            tokenBegin = pos;
+            throw e;
+        }
+    }
+
+    public void backup(int amount) {
+        pos -= amount;
+    }
+
+    @Deprecated
+    public int getColumn() {
+        return getEndColumn();
+    }
+
+    @Deprecated
+    public int getLine() {
+        return getEndLine();
+    }
+
+    public int getEndColumn() {
+        return index.column(pos);
+    }
+
+    public int getEndLine() {
+        return index.line(pos);
+    }
+
+    public int getBeginColumn() {
+        return index.column(tokenBegin);
+    }
+
+    public int getBeginLine() {
+        return index.line(tokenBegin);
+    }
+
+    public String GetImage() {
+        int n = pos - tokenBegin + 1;
+        if (n <= 0) return "";
+        byte b[] = new byte[n];
+        buffer.get(tokenBegin, b);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    public char[] GetSuffix(int len) {
+        char ret[] = new char[len];
+        for (int i = 0; i < len; i++)
+            ret[i] = (char)(buffer.get(pos - len + 1 + i) & 0xFF);
+        return ret;
+    }
+
+    public void Done() {}
+}
@@ -0,0 +1,250 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Where the write instructions, and the failed assertions, send their
+ * output (see Session.output).
+ * <p>
+ * The text sinks write "... value" for each write and
+ * " [!] Assertion failed for a" for each failed assertion, one per
+ * line. The output of a buffered sink may be late: it is complete
+ * after flush, which is called at the end of each execution, and
+ * before each prompt of the input.
+ */
+abstract class OutputSink {
+
+    /** write of an integer */
+    abstract void writeInt(int v);
+
+    /** write of a boolean */
+    abstract void writeBool(boolean v);
+
+    /**
+     * An assertion has failed
+     * @param assertion the printable form of the assertion
+     */
+    abstract void assertionFailed(String assertion);
+
+    /** Send the pending output */
+    void flush() {}
+
+    /**
+     * The standard output, without buffering: one println per write
+     */
+    static OutputSink stdout() {
+        return new OutputSink() {
+            void writeInt(int v) {
+                System.out.println("... " + v);
+            }
+            void writeBool(boolean v) {
+                System.out.println("... " + v);
+            }
+            void assertionFailed(String assertion) {
+                System.out.println(" [!] Assertion failed for " + assertion);
+            }
+        };
+    }
+
+    /**
+     * Text in a buffer, sent to a stream when the buffer is full
+     * @param async if true, the full buffers are written by a
+     *  background thread
+     */
+    static OutputSink buffered(OutputStream out, boolean async) {
+        return new BufferedOutputSink(out, async);
+    }
+
+    /**
+     * Binary: 4 bytes big-endian per write (1 or 0 for a boolean);
+     * the failed assertions are only counted
+     */
+    static OutputSink binary(OutputStream out) {
+        return new BinaryOutputSink(out);
+    }
+
+    /**
+     * Nothing is written
+     */
+    static OutputSink discard() {
+        return new OutputSink() {
+            void writeInt(int v) {}
+            void writeBool(boolean v) {}
+            void assertionFailed(String assertion) {}
+        };
+    }
+}
+
+
+/**
+ * Text output through a buffer of bytes; the integers are formatted
+ * in the buffer, without allocation
+ */
+class BufferedOutputSink extends OutputSink {
+
+    /** Size of the buffers */
+    private static final int SIZE = 1 << 16;
+
+    /** Number of full buffers that may wait for the background thread */
+    private static final int PENDING = 4;
+
+    private final OutputStream out;
+
+    /** The current buffer */
+    private byte buffer[] = new byte[SIZE];
+    private int count = 0;
+
+    /** The background writer, null if synchronous */
+    private ExecutorService writer;
+
+    /** Bound on the buffers waiting for the writer */
+    private Semaphore pending = new Semaphore(PENDING);
+
+    /** The first error of the writer */
+    private volatile IOException error;
+
+    BufferedOutputSink(OutputStream out, boolean async) {
+        this.out = out;
+        if (async)
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "output");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    void writeInt(int v) {
+        put("... ");
+        putInt(v);
+        put('\n');
+    }
+
+    void writeBool(boolean v) {
+        put(v ? "... true\n" : "... false\n");
+    }
+
+    void assertionFailed(String assertion) {
+        put(" [!] Assertion failed for ");
+        put(assertion);
+        put('\n');
+    }
+
+    private void put(char c) {
+        if (count == SIZE) drain();
+        buffer[count++] = (byte)c;
+    }
+
+    private void put(String s) {
+        for (int i = 0; i < s.length(); i++) put(s.charAt(i));
+    }
+
+    private void putInt(int v) {
+        if (count + 11 > SIZE) drain();
+        if (v < 0) {
+            buffer[count++] = '-';
+            if (v == Integer.MIN_VALUE) {
+                put("2147483648");
+                return;
+            }
+            v = -v;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte)('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte b = buffer[i]; buffer[i] = buffer[j]; buffer[j] = b;
+        }
+    }
+
+    /** Send the current buffer, to the stream or to the writer */
+    private void drain() {
+        if (count == 0) return;
+        if (writer == null) {
+            write(buffer, count);
+        }
+        else {
+            byte full[] = buffer;
+            int n = count;
+            pending.acquireUninterruptibly();
+            writer.execute(() -> {
+                write(full, n);
+                pending.release();
+            });
+            buffer = new byte[SIZE];
+        }
+        count = 0;
+    }
+
+    private void write(byte b[], int n) {
+        try {
+            out.write(b, 0, n);
+        }
+        catch (IOException e) {
+            if (error == null) error = e;
+        }
+    }
+
+    void flush() {
+        drain();
+        if (writer != null) {
+            // all the buffers are written when all the permits are back
+            pending.acquireUninterruptibly(PENDING);
+            pending.release(PENDING);
+        }
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            if (error == null) error = e;
+        }
+        if (error != null) {
+            IOException e = error;
+            error = null;
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+
+/**
+ * Binary output, buffered
+ */
+class BinaryOutputSink extends OutputSink {
+
+    private final DataOutputStream out;
+
+    /** The number of failed assertions */
+    int failures = 0;
+
+    BinaryOutputSink(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    }
+
+    void writeInt(int v) {
+        try {
+            out.writeInt(v);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void writeBool(boolean v) {
+        writeInt(v ? 1 : 0);
+    }
+
+    void assertionFailed(String assertion) {
+        failures++;
+    }
+
+    void flush() {
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
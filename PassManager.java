@@ -0,0 +1,355 @@
+import java.util.*;
+
+
+/**
+ * A pass of optimization of the abstract tree, between the analysis
+ * of the types and the resolution (see BlocNode.analyse).
+ * <p>
+ * The tree is walked bottom-up: each expression is rewritten after its
+ * sub-expressions, and each instruction after its own expressions and
+ * instructions. A rewriting must keep the meaning of the program,
+ * including its run-time errors (a division by zero is never removed).
+ */
+abstract class AstPass {
+
+    /** The number of rewritings made by the pass */
+    int rewrites = 0;
+
+    /** The name of the pass, for the command line */
+    abstract String name();
+
+    /**
+     * Rewrite an expression whose sub-expressions are rewritten
+     * @return the expression to use instead, or e itself
+     */
+    ExprNode rewrite(ExprNode e) {
+        return e;
+    }
+
+    /**
+     * Rewrite an instruction whose parts are rewritten
+     * @return the instructions to use instead, or null to keep it
+     */
+    InstsNode rewrite(InstNode i) {
+        return null;
+    }
+
+    /**
+     * The part kept of a conditional, or of a loop, of condition c, if
+     * the pass removes the other one
+     * @return true for the then part (the loop itself), false for the
+     *   else part (nothing, for a loop), or null to keep both
+     */
+    Boolean taken(ExprNode c, boolean loop) {
+        return null;
+    }
+
+    /** A new integer constant, at the place of an expression */
+    static ExprNode constant(ExprNode e, int v) {
+        ExprNode k = new ExprNode(new Token(LgConstants.INTPOS, "" + v), v);
+        k.type = Type.INT;
+        return k;
+    }
+
+    /** A new boolean constant, at the place of an expression */
+    static ExprNode constant(ExprNode e, boolean b) {
+        ExprNode k = b ? new ExprNode(new Token(LgConstants.TRUE, "true"), true)
+            : new ExprNode(new Token(LgConstants.FALSE, "false"), false);
+        k.type = Type.BOOL;
+        return k;
+    }
+
+    /** True if an expression is the integer constant v */
+    static boolean isInt(ExprNode e, int v) {
+        return e.theKind == ExprNode.Kind.INTCONST && e.value == v;
+    }
+
+    /** True if an expression is a boolean constant */
+    static boolean isBool(ExprNode e) {
+        return e.theKind == ExprNode.Kind.BOOLCONST;
+    }
+
+    /** The value of a boolean constant */
+    static boolean boolValue(ExprNode e) {
+        return e.operator.theOp == OperatorKind.TRUE;
+    }
+}
+
+
+/**
+ * The sequence of the passes run on each program (see Session.passes).
+ * The sequence is run again as long as one pass rewrites something.
+ * The control graphs built from the programs may be optimized as well
+ * (see BlocNode.buildControlGraph).
+ */
+class PassManager {
+
+    /** Bound on the number of runs of the sequence */
+    private static final int ROUNDS = 8;
+
+    private final List<AstPass> passes = new ArrayList<AstPass>();
+
+    /** True if the dead assignments are removed from the control graphs */
+    private boolean deadStores = false;
+
+    /** The number of assignments removed from the control graphs */
+    int deadStoresRemoved = 0;
+
+    /** The passes: constant folding, algebraic simplification and
+     *  elimination of the dead branches. The dead stores are only
+     *  removed from the control graphs on demand (see parse) */
+    static PassManager standard() {
+        return new PassManager()
+            .add(new ConstantFolding())
+            .add(new AlgebraicSimplification())
+            .add(new DeadBranchElimination());
+    }
+
+    /**
+     * The passes named in a list separated by commas, or none
+     * @throws IllegalArgumentException for an unknown name
+     */
+    static PassManager parse(String names) {
+        PassManager m = new PassManager();
+        if (names.equals("none")) return m;
+        for (String n : names.split(",")) {
+            switch (n) {
+            case "fold": m.add(new ConstantFolding()); break;
+            case "simplify": m.add(new AlgebraicSimplification()); break;
+            case "branches": m.add(new DeadBranchElimination()); break;
+            case "deadstores": m.withDeadStores(); break;
+            default: throw new IllegalArgumentException(n);
+            }
+        }
+        return m;
+    }
+
+    PassManager add(AstPass p) {
+        passes.add(p);
+        return this;
+    }
+
+    PassManager withDeadStores() {
+        deadStores = true;
+        return this;
+    }
+
+    /** Run the passes on a sequence of instructions, analysed */
+    void run(InstsNode insts) {
+        for (int round = 0; round < ROUNDS; round++) {
+            int before = rewrites();
+            for (AstPass p : passes) insts.transform(p);
+            if (rewrites() == before) return;
+        }
+    }
+
+    /**
+     * Run the passes on one instruction, analysed, without the
+     * instructions around it (see CfgParser)
+     */
+    void run(InstNode in) {
+        for (int round = 0; round < ROUNDS; round++) {
+            int before = rewrites();
+            for (AstPass p : passes) in.transform(p);
+            if (rewrites() == before) return;
+        }
+    }
+
+    /** Run the passes on the condition of an instruction, analysed */
+    ExprNode run(ExprNode e) {
+        for (int round = 0; round < ROUNDS; round++) {
+            int before = rewrites();
+            for (AstPass p : passes) e = e.transform(p);
+            if (rewrites() == before) break;
+        }
+        return e;
+    }
+
+    /** The part kept of a conditional or a loop (see AstPass.taken) */
+    Boolean taken(ExprNode c, boolean loop) {
+        for (AstPass p : passes) {
+            Boolean t = p.taken(c, loop);
+            if (t != null) return t;
+        }
+        return null;
+    }
+
+    /** Run the passes on a control graph */
+    void run(ControlGraph g) {
+        if (deadStores) deadStoresRemoved += g.eliminateDeadStores();
+    }
+
+    /** The total number of rewritings */
+    int rewrites() {
+        int n = 0;
+        for (AstPass p : passes) n += p.rewrites;
+        return n;
+    }
+
+    /** The names of the passes, as given to parse */
+    String names() {
+        List<String> l = new ArrayList<String>();
+        for (AstPass p : passes) l.add(p.name());
+        if (deadStores) l.add("deadstores");
+        return l.isEmpty() ? "none" : String.join(",", l);
+    }
+
+    public String toString() {
+        String s = "Passes:";
+        for (AstPass p : passes) s += " " + p.name() + " " + p.rewrites;
+        if (deadStores) s += " deadstores " + deadStoresRemoved;
+        return s;
+    }
+}
+
+
+/**
+ * Evaluation of the operations on constants. A division by the
+ * constant 0 is kept, for the error at run time, and so is an integer
+ * operation whose value is negative.
+ */
+class ConstantFolding extends AstPass {
+
+    String name() { return "fold"; }
+
+    ExprNode rewrite(ExprNode e) {
+        ExprNode a = e.fg, b = e.fd;
+        switch (e.theKind) {
+        case UNARY:
+            if (a.theKind == ExprNode.Kind.INTCONST)
+                return fold(e, e.operator.theOp == OperatorKind.MOINS ? - a.value : a.value);
+            if (isBool(a)) {
+                rewrites++;
+                return constant(e, ! boolValue(a));
+            }
+            return e;
+        case BINARY:
+            if (a.theKind == ExprNode.Kind.INTCONST && b.theKind == ExprNode.Kind.INTCONST) {
+                int x = a.value, y = b.value;
+                switch (e.operator.theOp) {
+                case PLUS: return fold(e, x + y);
+                case MOINS: return fold(e, x - y);
+                case MULT: return fold(e, x * y);
+                case DIV:
+                    if (y == 0) return e;
+                    return fold(e, x / y);
+                case SUP: rewrites++; return constant(e, x > y);
+                case INF: rewrites++; return constant(e, x < y);
+                case EGAL: rewrites++; return constant(e, x == y);
+                default: return e;
+                }
+            }
+            if (isBool(a) && isBool(b)) {
+                boolean x = boolValue(a), y = boolValue(b);
+                switch (e.operator.theOp) {
+                case AND: rewrites++; return constant(e, x && y);
+                case OR: rewrites++; return constant(e, x || y);
+                case EGAL: rewrites++; return constant(e, x == y);
+                default: return e;
+                }
+            }
+            return e;
+        default:
+            return e;
+        }
+    }
+
+    /**
+     * The constant v at the place of e, if v is not negative: the
+     * language has no negative literals, and the printed program must
+     * parse again
+     */
+    private ExprNode fold(ExprNode e, int v) {
+        if (v < 0) return e;
+        rewrites++;
+        return constant(e, v);
+    }
+}
+
+
+/**
+ * The identities x + 0, 0 + x, x - 0, x * 1, 1 * x, x / 1, + x, ! ! c,
+ * true && c, false || c, c && true, c || false (all equal to x or c),
+ * and false && c, true || c (constants, c is not evaluated). The other
+ * forms, such as x * 0, are kept: x may fail at run time.
+ */
+class AlgebraicSimplification extends AstPass {
+
+    String name() { return "simplify"; }
+
+    ExprNode rewrite(ExprNode e) {
+        ExprNode r = simplify(e);
+        if (r != e) rewrites++;
+        return r;
+    }
+
+    private ExprNode simplify(ExprNode e) {
+        ExprNode a = e.fg, b = e.fd;
+        switch (e.theKind) {
+        case UNARY:
+            if (e.operator.theOp == OperatorKind.PLUS) return a;
+            if (e.operator.theOp == OperatorKind.NOT && a.theKind == ExprNode.Kind.UNARY
+                && a.operator.theOp == OperatorKind.NOT)
+                return a.fg;
+            return e;
+        case BINARY:
+            switch (e.operator.theOp) {
+            case PLUS:
+                if (isInt(b, 0)) return a;
+                if (isInt(a, 0)) return b;
+                return e;
+            case MOINS:
+                return isInt(b, 0) ? a : e;
+            case MULT:
+                if (isInt(b, 1)) return a;
+                if (isInt(a, 1)) return b;
+                return e;
+            case DIV:
+                return isInt(b, 1) ? a : e;
+            case AND:
+                if (isBool(a)) return boolValue(a) ? b : a;
+                if (isBool(b) && boolValue(b)) return a;
+                return e;
+            case OR:
+                if (isBool(a)) return boolValue(a) ? a : b;
+                if (isBool(b) && !boolValue(b)) return a;
+                return e;
+            default:
+                return e;
+            }
+        default:
+            return e;
+        }
+    }
+}
+
+
+/**
+ * The conditionals whose condition is a constant are replaced by the
+ * branch taken; the loops whose condition is false are removed.
+ */
+class DeadBranchElimination extends AstPass {
+
+    String name() { return "branches"; }
+
+    InstsNode rewrite(InstNode i) {
+        if (i instanceof CondNode) {
+            CondNode c = (CondNode)i;
+            Boolean t = taken(c.thecond, false);
+            if (t == null) return null;
+            if (t) return c.thenpart;
+            return c.elsepart == null ? new InstsNode() : c.elsepart;
+        }
+        if (i instanceof WhileNode) {
+            WhileNode w = (WhileNode)i;
+            return taken(w.thecond, true) == null ? null : new InstsNode();
+        }
+        return null;
+    }
+
+    Boolean taken(ExprNode c, boolean loop) {
+        if (!isBool(c) || (loop && boolValue(c))) return null;
+        rewrites++;
+        return boolValue(c);
+    }
+}
@@ -0,0 +1,461 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+
+/**
+ * Cache of the results of whole executions (see Session.cache).
+ * <p>
+ * The programs are deterministic, except for the values they read: an
+ * execution is determined by the program and by the sequence of the
+ * values read. The cache records, for each such pair, the output of
+ * the execution (the writes and the failed assertions), and replays it
+ * without executing the next time.
+ * <p>
+ * For each program (identified by the SHA-256 hash of its printable
+ * form) the recorded executions form a trie of the values read: after
+ * a given prefix, the program either stops or reads a next variable,
+ * always the same. The lookup reads the values one at a time, as the
+ * program would, until it reaches a recorded execution (a hit) or an
+ * unknown value (a miss). On a miss, the program is executed on the
+ * values already read, then on the rest of the input, and its result is
+ * recorded. Only the executions that terminate normally are recorded.
+ * <p>
+ * On a hit, all the prompts come before the outputs, which may be
+ * interleaved otherwise. The number of recorded executions is bounded,
+ * the least recently used ones are evicted first. A cache can be saved
+ * to a file, and loaded back.
+ */
+class ResultCache {
+
+    /** The default number of recorded executions */
+    static final int CAPACITY = 1024;
+
+    /** Executions that read or write more values than this are not
+     *  recorded */
+    static final int MAX_LENGTH = 1 << 16;
+
+    /** Magic number and version of the files */
+    private static final int MAGIC = 0x46465243, VERSION = 1;
+
+    /** The output of one execution */
+    static class Result {
+
+        /** The kinds of the events: writeInt, writeBool, assertionFailed */
+        static final byte INT = 0, BOOL = 1, ASSERT = 2;
+
+        final byte kinds[];
+
+        /** The values written, or the indexes of the assertions */
+        final int values[];
+
+        /** The printable forms of the failed assertions */
+        final String assertions[];
+
+        Result(byte kinds[], int values[], String assertions[]) {
+            this.kinds = kinds;
+            this.values = values;
+            this.assertions = assertions;
+        }
+
+        /** Send the output again */
+        void replay(OutputSink out) {
+            for (int i = 0; i < kinds.length; i++) {
+                switch (kinds[i]) {
+                case INT: out.writeInt(values[i]); break;
+                case BOOL: out.writeBool(values[i] != 0); break;
+                default: out.assertionFailed(assertions[values[i]]);
+                }
+            }
+        }
+    }
+
+    /** A node of a trie: a sequence of values read by a program */
+    private static class Node {
+
+        /** The previous node and the last value read, for a non-root */
+        final Node parent;
+        final int value;
+
+        /** The hash of the program, for a root */
+        final String program;
+
+        /** The name of the next variable read, null if unknown */
+        String next;
+
+        /** The nodes after one more value */
+        Map<Integer, Node> children;
+
+        /** The result if the program stops here, null otherwise */
+        Result result;
+
+        Node(Node parent, int value, String program) {
+            this.parent = parent;
+            this.value = value;
+            this.program = program;
+        }
+    }
+
+    /** The tries, by program */
+    private final Map<String, Node> roots = new HashMap<String, Node>();
+
+    /** The nodes with a result, least recently used first */
+    private final LinkedHashMap<Node, Node> recorded;
+
+    /** The number of hits and misses */
+    private int hits = 0, misses = 0;
+
+    /**
+     * @param capacity the maximal number of recorded executions
+     */
+    ResultCache(int capacity) {
+        recorded = new LinkedHashMap<Node, Node>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Node, Node> e) {
+                if (size() <= capacity) return false;
+                evict(e.getKey());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The hash identifying a program
+     * @param text the printable form of the program
+     */
+    static String hash(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte h[] = md.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder s = new StringBuilder();
+            for (byte b : h) s.append(String.format("%02x", b));
+            return s.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new InternalException(" ! No SHA-256 ");
+        }
+    }
+
+    /**
+     * Execution through the cache, with the input and the output of the
+     * current session
+     * @param program the hash of the program
+     * @param run the execution of the program
+     */
+    void execute(String program, Runnable run) {
+        Session s = Session.current();
+        int read[] = new int[16];
+        int length = 0;
+        RuntimeException failure = null;
+        Node n = root(program);
+        Result r = null;
+        while (n != null && (r = result(n)) == null) {
+            String name = next(n);
+            if (name == null) break;
+            int v;
+            try {
+                v = ReadNode.readInt(name);
+            }
+            catch (RuntimeException e) {
+                // the execution will fail on this read
+                failure = e;
+                break;
+            }
+            if (length == read.length) read = Arrays.copyOf(read, 2 * length);
+            read[length++] = v;
+            n = child(n, v);
+        }
+        count(r != null);
+        if (r != null) {
+            r.replay(s.output);
+            s.output.flush();
+            return;
+        }
+
+        InputSource input = s.input;
+        OutputSink output = s.output;
+        RecordingInput in = new RecordingInput(input, Arrays.copyOf(read, length), failure);
+        RecordingOutput out = new RecordingOutput(output);
+        s.input = in;
+        s.output = out;
+        try {
+            run.run();
+        }
+        finally {
+            s.input = input;
+            s.output = output;
+        }
+        if (in.length <= MAX_LENGTH && out.length <= MAX_LENGTH)
+            put(program, in.values, in.names, in.length, out.result());
+    }
+
+    /** The root of the trie of a program, null if none */
+    private synchronized Node root(String program) {
+        return roots.get(program);
+    }
+
+    /** The result at a node, or null */
+    private synchronized Result result(Node n) {
+        if (n.result != null) recorded.get(n);
+        return n.result;
+    }
+
+    /** The name of the next variable read, null if unknown */
+    private synchronized String next(Node n) {
+        return n.children == null ? null : n.next;
+    }
+
+    /** The node after one more value, null if none */
+    private synchronized Node child(Node n, int v) {
+        return n.children == null ? null : n.children.get(v);
+    }
+
+    private synchronized void count(boolean hit) {
+        if (hit) hits++;
+        else misses++;
+    }
+
+    /**
+     * Record an execution
+     * @param values the values read
+     * @param names the names of the variables read
+     */
+    private synchronized void put(String program, int values[], String names[],
+                                  int length, Result r) {
+        Node n = roots.get(program);
+        if (n == null) {
+            n = new Node(null, 0, program);
+            roots.put(program, n);
+        }
+        for (int i = 0; i < length; i++) {
+            n.next = names[i];
+            if (n.children == null) n.children = new HashMap<Integer, Node>();
+            Node c = n.children.get(values[i]);
+            if (c == null) {
+                c = new Node(n, values[i], null);
+                n.children.put(values[i], c);
+            }
+            n = c;
+        }
+        n.result = r;
+        recorded.put(n, n);
+    }
+
+    /** Remove the result of a node, and the nodes that lead to nothing */
+    private void evict(Node n) {
+        n.result = null;
+        while (n.result == null && (n.children == null || n.children.isEmpty())) {
+            if (n.parent == null) {
+                roots.remove(n.program);
+                return;
+            }
+            n.parent.children.remove(n.value);
+            n = n.parent;
+        }
+    }
+
+    /** The number of recorded executions */
+    synchronized int size() {
+        return recorded.size();
+    }
+
+    synchronized int hits() {
+        return hits;
+    }
+
+    synchronized int misses() {
+        return misses;
+    }
+
+    public synchronized String toString() {
+        return "Result cache: " + recorded.size() + " results, " + hits + " hits, "
+            + misses + " misses";
+    }
+
+    /**
+     * Save the recorded executions, least recently used first
+     */
+    synchronized void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(recorded.size());
+            for (Node n : recorded.keySet()) {
+                // the path from the root
+                List<Node> path = new ArrayList<Node>();
+                for (Node p = n; p.parent != null; p = p.parent) path.add(p);
+                Collections.reverse(path);
+                Node root = n;
+                while (root.parent != null) root = root.parent;
+                out.writeUTF(root.program);
+                out.writeInt(path.size());
+                for (Node p : path) {
+                    out.writeUTF(p.parent.next);
+                    out.writeInt(p.value);
+                }
+                Result r = n.result;
+                out.writeInt(r.kinds.length);
+                for (int i = 0; i < r.kinds.length; i++) {
+                    out.writeByte(r.kinds[i]);
+                    out.writeInt(r.values[i]);
+                }
+                out.writeInt(r.assertions.length);
+                for (String a : r.assertions) out.writeUTF(a);
+            }
+        }
+    }
+
+    /**
+     * Load a cache saved by save; an empty cache if the file does not
+     * exist
+     * @param capacity the maximal number of recorded executions
+     */
+    static ResultCache load(Path file, int capacity) throws IOException {
+        ResultCache c = new ResultCache(capacity);
+        if (!Files.exists(file)) return c;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + ": not a result cache");
+            int count = in.readInt();
+            for (int k = 0; k < count; k++) {
+                String program = in.readUTF();
+                int length = in.readInt();
+                int values[] = new int[length];
+                String names[] = new String[length];
+                for (int i = 0; i < length; i++) {
+                    names[i] = in.readUTF();
+                    values[i] = in.readInt();
+                }
+                int events = in.readInt();
+                byte kinds[] = new byte[events];
+                int v[] = new int[events];
+                for (int i = 0; i < events; i++) {
+                    kinds[i] = in.readByte();
+                    v[i] = in.readInt();
+                }
+                String assertions[] = new String[in.readInt()];
+                for (int i = 0; i < assertions.length; i++) assertions[i] = in.readUTF();
+                c.put(program, values, names, length, new Result(kinds, v, assertions));
+            }
+        }
+        return c;
+    }
+}
+
+
+/**
+ * The input during a miss of the cache: the values already read by the
+ * lookup, then the rest of the input. All the values are recorded,
+ * with the names of the variables.
+ */
+class RecordingInput extends InputSource {
+
+    private final InputSource base;
+
+    /** The values already read, and the failure of the next read */
+    private final int replayed[];
+    private RuntimeException failure;
+
+    int values[] = new int[16];
+    String names[] = new String[16];
+    int length = 0;
+
+    RecordingInput(InputSource base, int replayed[], RuntimeException failure) {
+        this.base = base;
+        this.replayed = replayed;
+        this.failure = failure;
+    }
+
+    /** The prompts of the values already read have been written */
+    boolean prompts() {
+        return length >= replayed.length && failure == null && base.prompts();
+    }
+
+    int readInt(String name) {
+        int v;
+        if (length < replayed.length)
+            v = replayed[length];
+        else if (failure != null) {
+            RuntimeException e = failure;
+            failure = null;
+            throw e;
+        }
+        else
+            v = base.readInt(name);
+        if (length <= ResultCache.MAX_LENGTH) {
+            if (length == values.length) {
+                values = Arrays.copyOf(values, 2 * length);
+                names = Arrays.copyOf(names, 2 * length);
+            }
+            values[length] = v;
+            names[length] = name;
+        }
+        length++;
+        return v;
+    }
+}
+
+
+/**
+ * The output during a miss of the cache: sent to the output of the
+ * session, and recorded
+ */
+class RecordingOutput extends OutputSink {
+
+    private final OutputSink base;
+
+    private byte kinds[] = new byte[16];
+    private int values[] = new int[16];
+    private List<String> assertions = new ArrayList<String>();
+    int length = 0;
+
+    RecordingOutput(OutputSink base) {
+        this.base = base;
+    }
+
+    private void add(byte kind, int v) {
+        if (length <= ResultCache.MAX_LENGTH) {
+            if (length == kinds.length) {
+                kinds = Arrays.copyOf(kinds, 2 * length);
+                values = Arrays.copyOf(values, 2 * length);
+            }
+            kinds[length] = kind;
+            values[length] = v;
+        }
+        length++;
+    }
+
+    void writeInt(int v) {
+        base.writeInt(v);
+        add(ResultCache.Result.INT, v);
+    }
+
+    void writeBool(boolean v) {
+        base.writeBool(v);
+        add(ResultCache.Result.BOOL, v ? 1 : 0);
+    }
+
+    void assertionFailed(String assertion) {
+        base.assertionFailed(assertion);
+        int i = assertions.indexOf(assertion);
+        if (i < 0) {
+            i = assertions.size();
+            assertions.add(assertion);
+        }
+        add(ResultCache.Result.ASSERT, i);
+    }
+
+    void flush() {
+        base.flush();
+    }
+
+    /** The recorded output */
+    ResultCache.Result result() {
+        return new ResultCache.Result(Arrays.copyOf(kinds, length),
+                                      Arrays.copyOf(values, length),
+                                      assertions.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.BufferedWriter;
+
+/**
+ * The state of one session of the compiler: one program that is parsed,
+ * analysed, and executed. Each thread works in its own current
+ * session, so that several programs can be handled at the same time
+ * in one JVM.
+ */
+class Session {
+
+    /** The current session of each thread */
+    private static final ThreadLocal<Session> current = 
+        ThreadLocal.withInitial(Session::new);
+
+    /** Counter for the names of the control points */
+    int pointCounter = 0;
+
+    /** The indentation level of the printable forms (see Idt) */
+    int indentLevel = 0;
+
+    /** True once an assert has been parsed (only one is supported) */
+    boolean assertEncountered = false;
+
+    /** False to leave out the traces of the front end on System.out
+     *  (see ProgNode.analyse) */
+    boolean traces = true;
+
+    /** The DOT file of the control graph, may be null */
+    BufferedWriter outdot;
+
+    /** The source of the values read by the programs */
+    InputSource input = InputSource.stdin();
+
+    /** The destination of the values written by the programs */
+    OutputSink output = OutputSink.stdout();
+
+    /** The engine that executes the programs */
+    Engine engine = Engine.CLOSURE;
+
+    /** The optimizations of the programs after their analysis, null
+     *  for none */
+    PassManager passes = PassManager.standard();
+
+    /** The results of the previous executions, null for no cache */
+    ResultCache cache;
+
+    /**
+     * @return the current session of the calling thread
+     */
+    static Session current() {
+        return current.get();
+    }
+
+    /**
+     * Start a new session, which becomes the current session of the
+     * calling thread
+     * @return the new session
+     */
+    static Session begin() {
+        Session s = new Session();
+        current.set(s);
+        return s;
+    }
+}
+
+
+/**
+ * The engines for executing the programs
+ */
+enum Engine {
+    /** walk the abstract tree (ProgNode.execute) */
+    AST,
+    /** translate the tree into closures, then run (the default, see
+     *  InstNode.compileClosure) */
+    CLOSURE,
+    /** compile for the register machine, then run (see Vm) */
+    VM,
+    /** compile into a class of the JVM, then run (see JvmCompiler) */
+    JIT,
+    /** flatten the tree into arrays, then walk them (see FlatTree) */
+    FLAT
+}
@@ -1,6 +1,21 @@
 import java.util.*;
 
 
+/**
+ * A value in the Cartesian product of n Sign lattices, whatever its
+ * representation in memory.
+ */
+abstract class AbstractSignVector extends AbstractValue {
+
+    /**
+     * get the sign at rank 
+     * @param i the rank in the vector 
+     * @return a sign
+     */
+    abstract public Sign get(int i);
+}
+
+
 /**
  * A vector of signs, as a representation for a value in
  * the Cartesian product of n Sign lattices.
@@ -8,7 +23,7 @@ import java.util.*;
  *     if one of the values in the vector is BOT, then all 
  *     the values are BOT.
  */
-class SignVector extends AbstractValue {
+class SignVector extends AbstractSignVector {
 
     /** The vector of signs */
     private Sign vector[]; 
@@ -84,11 +99,6 @@ class SignVector extends AbstractValue {
 	    vector[i] = s;     ;
     }
 
-    /**
-     * get the sign at rank 
-     * @param i the rank in the vector 
-     * @return a sign
-     */
     public Sign get(int i) {
  	return vector[i] ;
     }
@@ -101,13 +111,7 @@ class SignVector extends AbstractValue {
      * @return the new sign vector, in canonical form
      */
     public SignVector copyChangeAssign(int i, AbstractValue a) {
-	SignVector v =(SignVector)a;
-	Sign s = v.vector[i];
-
-	// trace -----------------------------------
-        System.out.println("copyChangeAssign" + this.toString() 
-			   + " " + i + " " +  s);
-	// end trace
+	Sign s = ((AbstractSignVector)a).get(i);
 
 	Sign copy [] = new Sign [vector.length]; 
 	
@@ -126,7 +130,6 @@ class SignVector extends AbstractValue {
 	    }
 	}
 	
-	System.out.println("returns " + new SignVector(copy));
 	return new SignVector(copy);
     }
     
@@ -141,24 +144,16 @@ class SignVector extends AbstractValue {
      */
     public SignVector copyChangeCond(int i, int j, Operator op, boolean neg) {
 		
-	// trace ------------------------------------------------
-	System.out.println("copyChangeCond " + this.toString() + i + op + j 
-			   + neg);
-	// end trace --------------------------------------------
 	Sign copy [] = new Sign [vector.length];
 	Sign lhsign = vector[i];
 	Sign rhsign = vector[j];
 	SignPair sp;
 	if (op.theOp == OperatorKind.INF) {
 	    if (neg) {
-		System.out.println("copyChangeCond LT");
 		sp = SignLattice.lt(lhsign, rhsign);
-		System.out.println(sp);
 	    }
 	    else {
-		System.out.println("copyChangeCond GEQ");
 		sp = SignLattice.geq(lhsign, rhsign);
-		System.out.println(sp);
 	    }
 	}
 	else {
@@ -191,6 +186,181 @@ class SignVector extends AbstractValue {
 }
 
 
+/**
+ * A vector of signs packed in an array of longs, 4 bits per sign
+ * (16 signs per word), the sign being coded by its ordinal. Same
+ * semantics and same invariant as SignVector, but about 8 times
+ * smaller, and union and equality work a word at a time.
+ * The unused nibbles of the last word are always 0 (BOT).
+ */
+class PackedSignVector extends AbstractSignVector {
+
+    /** Number of signs in a word */
+    private static final int PER_WORD = 16;
+
+    /** Two signs in a byte, union of two such bytes:
+     *  table_union2[(b1 << 8) | b2] */
+    private static final byte table_union2[] = new byte[1 << 16];
+
+    static {
+	Sign signs[] = Sign.values();
+	for (Sign a1 : signs)
+	    for (Sign a2 : signs)
+		for (Sign b1 : signs)
+		    for (Sign b2 : signs) {
+			int a = a2.ordinal() << 4 | a1.ordinal();
+			int b = b2.ordinal() << 4 | b1.ordinal();
+			int u = SignLattice.union(a2, b2).ordinal() << 4 
+			    | SignLattice.union(a1, b1).ordinal();
+			table_union2[a << 8 | b] = (byte) u;
+		    }
+    }
+
+    /** Number of signs in the vector */
+    private int size;
+
+    /** The packed signs, sign i is in nibble i % 16 of word i / 16 */
+    private long words[];
+
+    /** 
+     * Constructor from an int that gives the size; vector is
+     * initialized to Bottom
+     * @param n the size 
+     */
+    public PackedSignVector(int n) {
+	size = n;
+	words = new long[(n + PER_WORD - 1) / PER_WORD];
+    }
+
+    /** 
+     * Constructor from an int that gives the size, and a sign to be
+     * used as initial value
+     * @param n the size
+     * @param s the sign to be used as initial value 
+     */
+    public PackedSignVector(int n, Sign s) {
+	this(n);
+	long fill = s.ordinal() * 0x1111111111111111L;
+	for (int k = 0; k < words.length; k++)
+	    words[k] = fill;
+	// keep the unused nibbles at BOT
+	if (n % PER_WORD != 0)
+	    words[words.length - 1] &= (1L << 4 * (n % PER_WORD)) - 1;
+    }
+
+    /** Copy constructor */
+    private PackedSignVector(PackedSignVector v) {
+	size = v.size;
+	words = v.words.clone();
+    }
+
+    /** External printable form */
+    public String toString() { 
+	String s ="<";
+	for (int i = 0; i < size; i++)
+	    s = s + get(i) + ' ';
+	s = s + ">";
+	return s;
+    }
+
+    public Sign get(int i) {
+	return Sign.values()[(int) (words[i / PER_WORD] >>> 4 * (i % PER_WORD)) & 0xF];
+    }
+
+    /** set the sign at rank i */
+    private void set(int i, Sign s) {
+	int shift = 4 * (i % PER_WORD);
+	words[i / PER_WORD] = words[i / PER_WORD] & ~(0xFL << shift) 
+	    | (long) s.ordinal() << shift;
+    }
+
+    /**
+     * Union of this with another packed sign vector, one byte (two
+     * signs) at a time through table_union2
+     * @param a another sign vector, should be in canonical form(BOT
+     * everywhere or nowhere)
+     */
+    public void union(AbstractValue a) {
+	PackedSignVector v = (PackedSignVector) a;
+	for (int k = 0; k < words.length; k++) {
+	    long x = words[k];
+	    long y = v.words[k];
+	    if (x == 0) {
+		// BOT is neutral
+		words[k] = y;
+		continue;
+	    }
+	    long r = 0;
+	    for (int shift = 0; shift < 64; shift += 8) {
+		int b = (int) (x >>> shift) & 0xFF;
+		int c = (int) (y >>> shift) & 0xFF;
+		r |= (long) (table_union2[b << 8 | c] & 0xFF) << shift;
+	    }
+	    words[k] = r;
+	}
+    }
+
+    /**
+     * equality for packed sign vectors, on the canonical form
+     * @param other another sign vector to be compared to this
+     */
+    public boolean equals(Object other) {
+	if (!(other instanceof PackedSignVector)) return false;
+	return Arrays.equals(words, ((PackedSignVector) other).words);
+    }
+
+    public int hashCode() {
+	return Arrays.hashCode(words);
+    }
+
+    /**
+     * Build a new vector from this, by changing only one sign,
+     * according to the effect of an assignment x:= expr(of sign s)
+     * @param i the rank of the variable x whose sign is modified
+     * @param a the new sign of this variable 
+     * @return the new sign vector, in canonical form
+     */
+    public PackedSignVector copyChangeAssign(int i, AbstractValue a) {
+	Sign s = ((AbstractSignVector) a).get(i);
+	if (s == Sign.BOT)
+	    return new PackedSignVector(size);
+	PackedSignVector copy = new PackedSignVector(this);
+	if (!isBottom())
+	    copy.set(i, s);
+	return copy;
+    }
+
+    /**
+     * Build a new vector from this, by changing two signs at a time,
+     * according to the effect of a condition x # y 
+     * @param i j ranks  of the two variables whose signs are changed
+     * @param op the operator(either < or >)   
+     * @param neg true if simple expr x#y, false if expression !(x#y)
+     * @return a new canonical sign vector 
+     */
+    public PackedSignVector copyChangeCond(int i, int j, Operator op, boolean neg) {
+	Sign lhsign = get(i);
+	Sign rhsign = get(j);
+	SignPair sp;
+	if (op.theOp == OperatorKind.INF)
+	    sp = neg ? SignLattice.lt(lhsign, rhsign) : SignLattice.geq(lhsign, rhsign);
+	else
+	    sp = neg ? SignLattice.gt(lhsign, rhsign) : SignLattice.leq(lhsign, rhsign);
+
+	if ((sp.o1 == Sign.BOT) || (sp.o2 == Sign.BOT))
+	    return new PackedSignVector(size);
+	PackedSignVector copy = new PackedSignVector(this);
+	copy.set(i, sp.o1);
+	copy.set(j, sp.o2);
+	return copy;
+    }
+
+    public boolean isBottom() {
+	return (words[0] & 0xF) == 0;
+    }
+}
+
+
 /**
  * The values in the Sign lattice for one numerical variable.
  */
@@ -0,0 +1,168 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * The tokens of a source, as arrays: for the i-th token, its kind (see
+ * LgConstants), the offset of its first character and the offset after
+ * its last one, and for an identifier, its number in the symbol table.
+ * The last token is EOF.
+ * <p>
+ * No Token object is built by the lexer (see LgLexer): the parser (see
+ * ArrayParser) asks for a Token only for the tokens kept in the
+ * abstract tree, with token(i). Its image is shared with the other
+ * tokens of the same text, and its position is computed then.
+ */
+class TokenArray {
+
+    int kind[], start[], end[], sym[];
+
+    /** The number of tokens */
+    int size = 0;
+
+    /** The names of the identifiers */
+    final SymbolTable symbols = new SymbolTable();
+
+    private final ByteBuffer source;
+    private final int length;
+    private LineIndex lines;
+
+    /** The tokens of the first length bytes of a source */
+    TokenArray(ByteBuffer source, int length) {
+        this.source = source;
+        this.length = length;
+        int n = Math.max(16, length / 4);
+        kind = new int[n];
+        start = new int[n];
+        end = new int[n];
+        sym = new int[n];
+    }
+
+    /** Add a token, from its first character to before to */
+    void add(int k, int from, int to) {
+        if (size == kind.length) {
+            int n = 2 * size;
+            kind = Arrays.copyOf(kind, n);
+            start = Arrays.copyOf(start, n);
+            end = Arrays.copyOf(end, n);
+            sym = Arrays.copyOf(sym, n);
+        }
+        kind[size] = k;
+        start[size] = from;
+        end[size] = to;
+        sym[size] = k == LgConstants.IDF ? symbols.intern(source, from, to) : -1;
+        size++;
+    }
+
+    /** The text of a token */
+    String image(int i) {
+        String im = LgTokenManager.jjstrLiteralImages[kind[i]];
+        if (im != null) return im;
+        if (kind[i] == LgConstants.IDF) return symbols.name(sym[i]);
+        return text(source, start[i], end[i]);
+    }
+
+    /**
+     * A Token for a token, with its image and its position, as built by
+     * LgTokenManager
+     */
+    Token token(int i) {
+        if (lines == null) lines = LineIndex.of(source, length);
+        Token t = Token.newToken(kind[i], image(i));
+        // the end of the input is positioned on the last character
+        int first = kind[i] == LgConstants.EOF ? length - 1 : start[i];
+        int last = kind[i] == LgConstants.EOF ? length - 1 : end[i] - 1;
+        t.beginLine = lines.line(first);
+        t.beginColumn = lines.column(first);
+        t.endLine = lines.line(last);
+        t.endColumn = lines.column(last);
+        return t;
+    }
+
+    /** The line and the column of a character, for the errors */
+    int line(int offset) {
+        if (lines == null) lines = LineIndex.of(source, length);
+        return lines.line(offset);
+    }
+
+    int column(int offset) {
+        if (lines == null) lines = LineIndex.of(source, length);
+        return lines.column(offset);
+    }
+
+    static String text(ByteBuffer b, int from, int to) {
+        byte t[] = new byte[to - from];
+        b.get(from, t);
+        return new String(t, StandardCharsets.ISO_8859_1);
+    }
+}
+
+
+/**
+ * The names of the identifiers, numbered in the order they are met.
+ * A name is looked up from the bytes of the source, so that a String is
+ * built only for the first occurrence.
+ */
+class SymbolTable {
+
+    private String names[] = new String[64];
+    private int hashes[] = new int[64];
+    private int count = 0;
+
+    /** Open addressing: the number + 1 of the name in each slot, or 0 */
+    private int slots[] = new int[128];
+
+    /** The number of names */
+    int size() {
+        return count;
+    }
+
+    String name(int n) {
+        return names[n];
+    }
+
+    /** The number of a name, given by the bytes from to before to */
+    int intern(ByteBuffer b, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + b.get(i);
+        int mask = slots.length - 1;
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int n = slots[s] - 1;
+            if (n < 0) {
+                n = add(TokenArray.text(b, from, to), h);
+                slots[s] = n + 1;
+                if (2 * count > slots.length) rehash();
+                return n;
+            }
+            if (hashes[n] == h && same(names[n], b, from, to)) return n;
+        }
+    }
+
+    private static boolean same(String s, ByteBuffer b, int from, int to) {
+        if (s.length() != to - from) return false;
+        for (int i = from; i < to; i++)
+            if (s.charAt(i - from) != b.get(i)) return false;
+        return true;
+    }
+
+    private int add(String name, int h) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, 2 * count);
+            hashes = Arrays.copyOf(hashes, 2 * count);
+        }
+        names[count] = name;
+        hashes[count] = h;
+        return count++;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int n = 0; n < count; n++) {
+            int s = hashes[n] & mask;
+            while (slots[s] != 0) s = (s + 1) & mask;
+            slots[s] = n + 1;
+        }
+    }
+}
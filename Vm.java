@@ -0,0 +1,499 @@
+import java.util.*;
+
+
+/**
+ * A register machine, for executing the programs without walking the
+ * abstract tree (engine VM, see Session.engine).
+ * <p>
+ * The code is a flat array of ints: each instruction is an opcode
+ * followed by its operands, which are registers, addresses in the code
+ * or indexes in the table of strings. The registers are, in this
+ * order: the integer variables (at their slots), the boolean variables
+ * (1 for true, 0 for false), the temporaries of the expressions, and
+ * the constants of the program, which are loaded once before the
+ * execution.
+ */
+class Vm {
+
+    // ------------------------------- opcodes, with their operands
+
+    /** HALT */
+    static final int HALT = 0;
+    /** MOV d a : r[d] = r[a] */
+    static final int MOV = 1;
+    /** ADD d a b : r[d] = r[a] + r[b], and SUB, MUL, DIV */
+    static final int ADD = 2, SUB = 3, MUL = 4, DIV = 5;
+    /** NEG d a : r[d] = - r[a], NOT d a : r[d] = !r[a] */
+    static final int NEG = 6, NOT = 7;
+    /** LT d a b : r[d] = r[a] < r[b], and GT, EQ */
+    static final int LT = 8, GT = 9, EQ = 10;
+    /** JMP t : goto t */
+    static final int JMP = 11;
+    /** JZ a t : if !r[a] goto t, JNZ a t : if r[a] goto t */
+    static final int JZ = 12, JNZ = 13;
+    /** JLT a b t : if r[a] < r[b] goto t, and JGE, JGT, JLE, JEQ, JNE */
+    static final int JLT = 14, JGE = 15, JGT = 16, JLE = 17, JEQ = 18, JNE = 19;
+    /** P d a : r[d] = r[a]^2 - 4*r[a] + 1 */
+    static final int P = 20;
+    /** READ d k : read r[d], an integer named strings[k] */
+    static final int READ = 21;
+    /** WRITEI a, WRITEB a : write r[a], an integer (resp. a boolean) */
+    static final int WRITEI = 22, WRITEB = 23;
+    /** FAIL k : the assertion strings[k] has failed */
+    static final int FAIL = 24;
+
+    /** Names of the opcodes */
+    static final String NAMES[] = {
+        "HALT", "MOV", "ADD", "SUB", "MUL", "DIV", "NEG", "NOT",
+        "LT", "GT", "EQ", "JMP", "JZ", "JNZ", "JLT", "JGE", "JGT",
+        "JLE", "JEQ", "JNE", "P", "READ", "WRITEI", "WRITEB", "FAIL" };
+
+    /**
+     * Operands of the opcodes: r for a register, t for an address,
+     * k for an index in the strings
+     */
+    static final String OPERANDS[] = {
+        "", "rr", "rrr", "rrr", "rrr", "rrr", "rr", "rr",
+        "rrr", "rrr", "rrr", "t", "rt", "rt", "rrt", "rrt", "rrt",
+        "rrt", "rrt", "rrt", "rr", "rk", "r", "r", "k" };
+
+    // ------------------------------- the program
+
+    /** The code */
+    final int code[];
+
+    /** The number of registers */
+    final int numberOfRegisters;
+
+    /** The first register of the booleans, and their number */
+    final int firstBool, numberOfBools;
+
+    /** The first register of the constants, and their values */
+    final int firstConstant;
+    final int constants[];
+
+    /** The names of the variables read, and the assertions */
+    final String strings[];
+
+    Vm(int code[], int numberOfRegisters, int firstBool, int numberOfBools,
+       int firstConstant, int constants[], String strings[]) {
+        this.code = code;
+        this.numberOfRegisters = numberOfRegisters;
+        this.firstBool = firstBool;
+        this.numberOfBools = numberOfBools;
+        this.firstConstant = firstConstant;
+        this.constants = constants;
+        this.strings = strings;
+    }
+
+    /** Printable form: one instruction per line */
+    public String toString() {
+        String s = "";
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc];
+            s += pc + ": " + NAMES[op];
+            String kinds = OPERANDS[op];
+            for (int i = 0; i < kinds.length(); i++) {
+                int x = code[pc + 1 + i];
+                switch (kinds.charAt(i)) {
+                case 'r':
+                    s += x >= firstConstant ? " #" + constants[x - firstConstant]
+                        : " r" + x;
+                    break;
+                case 't': s += " @" + x; break;
+                default: s += " \"" + strings[x] + "\"";
+                }
+            }
+            s += "\n";
+            pc += 1 + kinds.length();
+        }
+        return s;
+    }
+
+    /**
+     * Execution, with the variables initialized to 0 and true
+     * @return the registers at the end of the execution
+     */
+    int[] run() {
+        final int c[] = code;
+        final int r[] = new int[numberOfRegisters];
+        final OutputSink out = Session.current().output;
+        Arrays.fill(r, firstBool, firstBool + numberOfBools, 1);
+        System.arraycopy(constants, 0, r, firstConstant, constants.length);
+        int pc = 0;
+        while (true) {
+            switch (c[pc]) {
+            case HALT:
+                return r;
+            case MOV:
+                r[c[pc+1]] = r[c[pc+2]]; pc += 3; break;
+            case ADD:
+                r[c[pc+1]] = r[c[pc+2]] + r[c[pc+3]]; pc += 4; break;
+            case SUB:
+                r[c[pc+1]] = r[c[pc+2]] - r[c[pc+3]]; pc += 4; break;
+            case MUL:
+                r[c[pc+1]] = r[c[pc+2]] * r[c[pc+3]]; pc += 4; break;
+            case DIV:
+                r[c[pc+1]] = r[c[pc+2]] / r[c[pc+3]]; pc += 4; break;
+            case NEG:
+                r[c[pc+1]] = - r[c[pc+2]]; pc += 3; break;
+            case NOT:
+                r[c[pc+1]] = r[c[pc+2]] ^ 1; pc += 3; break;
+            case LT:
+                r[c[pc+1]] = r[c[pc+2]] < r[c[pc+3]] ? 1 : 0; pc += 4; break;
+            case GT:
+                r[c[pc+1]] = r[c[pc+2]] > r[c[pc+3]] ? 1 : 0; pc += 4; break;
+            case EQ:
+                r[c[pc+1]] = r[c[pc+2]] == r[c[pc+3]] ? 1 : 0; pc += 4; break;
+            case JMP:
+                pc = c[pc+1]; break;
+            case JZ:
+                pc = r[c[pc+1]] == 0 ? c[pc+2] : pc + 3; break;
+            case JNZ:
+                pc = r[c[pc+1]] != 0 ? c[pc+2] : pc + 3; break;
+            case JLT:
+                pc = r[c[pc+1]] < r[c[pc+2]] ? c[pc+3] : pc + 4; break;
+            case JGE:
+                pc = r[c[pc+1]] >= r[c[pc+2]] ? c[pc+3] : pc + 4; break;
+            case JGT:
+                pc = r[c[pc+1]] > r[c[pc+2]] ? c[pc+3] : pc + 4; break;
+            case JLE:
+                pc = r[c[pc+1]] <= r[c[pc+2]] ? c[pc+3] : pc + 4; break;
+            case JEQ:
+                pc = r[c[pc+1]] == r[c[pc+2]] ? c[pc+3] : pc + 4; break;
+            case JNE:
+                pc = r[c[pc+1]] != r[c[pc+2]] ? c[pc+3] : pc + 4; break;
+            case P: {
+                int t = r[c[pc+2]];
+                r[c[pc+1]] = t * t - (4 * t) + 1;
+                pc += 3; break;
+            }
+            case READ:
+                r[c[pc+1]] = ReadNode.readInt(strings[c[pc+2]]); pc += 3; break;
+            case WRITEI:
+                out.writeInt(r[c[pc+1]]); pc += 2; break;
+            case WRITEB:
+                out.writeBool(r[c[pc+1]] != 0); pc += 2; break;
+            case FAIL:
+                out.assertionFailed(strings[c[pc+1]]);
+                pc += 2; break;
+            default:
+                throw new InternalException("Bad opcode " + c[pc] + " at " + pc);
+            }
+        }
+    }
+}
+
+
+/**
+ * Translation of an analysed block into code for the register machine.
+ * <p>
+ * The instructions call the compileX functions (see
+ * InstNode.compileVm), the expressions are translated here. While the
+ * code is generated, the constants are denoted by negative registers
+ * (-1 - rank), and the addresses of the jumps by labels; both are
+ * replaced by their final values at the end (see getVm).
+ */
+class VmCompiler {
+
+    /** The code, and its length */
+    private int code[] = new int[64];
+    private int pc = 0;
+
+    /** Number of integer and boolean variables */
+    private final int numberOfInts, numberOfBools;
+
+    /** The temporaries in use, and the maximum */
+    private int nextTemp = 0, numberOfTemps = 0;
+
+    /** The constants, with their rank */
+    private Map<Integer, Integer> constantRank = new HashMap<Integer, Integer>();
+    private List<Integer> constants = new ArrayList<Integer>();
+
+    /** The strings (names, assertions) */
+    private List<String> strings = new ArrayList<String>();
+
+    /** The addresses of the labels, -1 if not placed yet */
+    private List<Integer> labels = new ArrayList<Integer>();
+
+    /**
+     * @param E the static environment of the block
+     */
+    VmCompiler(EnvStatique E) {
+        numberOfInts = E.numberOfSlots(Type.INT);
+        numberOfBools = E.numberOfSlots(Type.BOOL);
+    }
+
+    /**
+     * Compile a block
+     * @param E the static environment of the block
+     * @param insts the instructions, analysed and resolved
+     * @return the machine with its code
+     */
+    static Vm compile(EnvStatique E, InstsNode insts) {
+        VmCompiler c = new VmCompiler(E);
+        insts.compileVm(c);
+        return c.getVm();
+    }
+
+    // ------------------------------- instructions
+
+    void compileAssign(Idf x, ExprNode e) {
+        expr(e, register(x));
+        nextTemp = 0;
+    }
+
+    void compileP(Idf y, Idf x) {
+        emit(Vm.P, register(y), register(x));
+    }
+
+    void compileRead(Idf x) {
+        emit(Vm.READ, register(x), string(x.toString()));
+    }
+
+    void compileWrite(ExprNode e) {
+        emit(e.type == Type.BOOL ? Vm.WRITEB : Vm.WRITEI, expr(e, -1));
+        nextTemp = 0;
+    }
+
+    void compileAssert(ExprNode e, String text) {
+        int ok = newLabel();
+        jump(e, true, ok);
+        emit(Vm.FAIL, string(text));
+        placeLabel(ok);
+    }
+
+    void compileCond(ExprNode c, InstsNode thenpart, InstsNode elsepart) {
+        int otherwise = newLabel();
+        jump(c, false, otherwise);
+        thenpart.compileVm(this);
+        if (elsepart != null) {
+            int end = newLabel();
+            emit(Vm.JMP, end);
+            placeLabel(otherwise);
+            elsepart.compileVm(this);
+            placeLabel(end);
+        }
+        else
+            placeLabel(otherwise);
+    }
+
+    /** The test is at the end of the loop, one jump per iteration */
+    void compileWhile(ExprNode c, InstsNode body) {
+        int top = newLabel(), test = newLabel();
+        emit(Vm.JMP, test);
+        placeLabel(top);
+        body.compileVm(this);
+        placeLabel(test);
+        jump(c, true, top);
+    }
+
+    // ------------------------------- expressions
+
+    /**
+     * Compile an expression
+     * @param dest the register of the result, -1 for any
+     * @return the register of the result
+     */
+    private int expr(ExprNode e, int dest) {
+        switch (e.theKind) {
+        case INTCONST:
+            return move(dest, constant(e.value));
+        case BOOLCONST:
+            return move(dest, constant(e.operator.theOp == OperatorKind.TRUE ? 1 : 0));
+        case IDF:
+            return move(dest, register(e.idf));
+        case UNARY: {
+            int mark = nextTemp;
+            int a = expr(e.fg, -1);
+            nextTemp = mark;
+            switch (e.operator.theOp) {
+            case PLUS: return move(dest, a);
+            case MOINS: return emitResult(Vm.NEG, dest, a);
+            case NOT: return emitResult(Vm.NOT, dest, a);
+            default: throw new InternalException(" ! Switch case unhandled ");
+            }
+        }
+        case BINARY: {
+            OperatorKind op = e.operator.theOp;
+            if (op == OperatorKind.AND || op == OperatorKind.OR) {
+                // short-circuit, in a temporary: dest may be read by fd
+                int t = temp(), end = newLabel();
+                expr(e.fg, t);
+                emit(op == OperatorKind.AND ? Vm.JZ : Vm.JNZ, t, end);
+                expr(e.fd, t);
+                placeLabel(end);
+                return move(dest, t);
+            }
+            int mark = nextTemp;
+            int a = expr(e.fg, -1);
+            int b = expr(e.fd, -1);
+            nextTemp = mark;
+            switch (op) {
+            case PLUS: return emitResult(Vm.ADD, dest, a, b);
+            case MOINS: return emitResult(Vm.SUB, dest, a, b);
+            case MULT: return emitResult(Vm.MUL, dest, a, b);
+            case DIV: return emitResult(Vm.DIV, dest, a, b);
+            case INF: return emitResult(Vm.LT, dest, a, b);
+            case SUP: return emitResult(Vm.GT, dest, a, b);
+            case EGAL: return emitResult(Vm.EQ, dest, a, b);
+            default: throw new InternalException(" ! Switch case unhandled ");
+            }
+        }
+        default:
+            throw new InternalException(" ! Switch case unhandled ");
+        }
+    }
+
+    /**
+     * Compile a boolean expression as a jump
+     * @param when jump when the expression has this value
+     * @param label the target of the jump
+     */
+    private void jump(ExprNode e, boolean when, int label) {
+        switch (e.theKind) {
+        case BOOLCONST:
+            if ((e.operator.theOp == OperatorKind.TRUE) == when)
+                emit(Vm.JMP, label);
+            return;
+        case UNARY:
+            if (e.operator.theOp == OperatorKind.NOT) {
+                jump(e.fg, !when, label);
+                return;
+            }
+            break;
+        case BINARY:
+            switch (e.operator.theOp) {
+            case AND:
+            case OR:
+                if ((e.operator.theOp == OperatorKind.AND) == when) {
+                    // both must have the value 'when'
+                    int skip = newLabel();
+                    jump(e.fg, !when, skip);
+                    jump(e.fd, when, label);
+                    placeLabel(skip);
+                }
+                else {
+                    jump(e.fg, when, label);
+                    jump(e.fd, when, label);
+                }
+                return;
+            case INF:
+                compare(e, when ? Vm.JLT : Vm.JGE, label);
+                return;
+            case SUP:
+                compare(e, when ? Vm.JGT : Vm.JLE, label);
+                return;
+            case EGAL:
+                compare(e, when ? Vm.JEQ : Vm.JNE, label);
+                return;
+            default:
+                break;
+            }
+            break;
+        default:
+            break;
+        }
+        int mark = nextTemp;
+        int a = expr(e, -1);
+        emit(when ? Vm.JNZ : Vm.JZ, a, label);
+        nextTemp = mark;
+    }
+
+    private void compare(ExprNode e, int op, int label) {
+        int mark = nextTemp;
+        int a = expr(e.fg, -1);
+        int b = expr(e.fd, -1);
+        nextTemp = mark;
+        emit(op, a, b, label);
+    }
+
+    // ------------------------------- registers, constants, labels
+
+    private int register(Idf i) {
+        return i.type == Type.INT ? i.slot : numberOfInts + i.slot;
+    }
+
+    private int temp() {
+        int t = numberOfInts + numberOfBools + nextTemp++;
+        numberOfTemps = Math.max(numberOfTemps, nextTemp);
+        return t;
+    }
+
+    private int constant(int k) {
+        Integer rank = constantRank.get(k);
+        if (rank == null) {
+            rank = constants.size();
+            constants.add(k);
+            constantRank.put(k, rank);
+        }
+        return -1 - rank;
+    }
+
+    private int string(String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+
+    private int newLabel() {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    private void placeLabel(int l) {
+        labels.set(l, pc);
+    }
+
+    // ------------------------------- emission
+
+    /** copy a into dest, unless dest is -1 or a */
+    private int move(int dest, int a) {
+        if (dest == -1 || dest == a) return a;
+        emit(Vm.MOV, dest, a);
+        return dest;
+    }
+
+    /** emit op d operands, in dest or in a new temporary */
+    private int emitResult(int op, int dest, int... operands) {
+        int d = dest == -1 ? temp() : dest;
+        int i[] = new int[operands.length + 1];
+        i[0] = d;
+        System.arraycopy(operands, 0, i, 1, operands.length);
+        emit(op, i);
+        return d;
+    }
+
+    private void emit(int op, int... operands) {
+        if (pc + 1 + operands.length > code.length)
+            code = Arrays.copyOf(code, 2 * code.length + operands.length);
+        code[pc++] = op;
+        for (int x : operands) code[pc++] = x;
+    }
+
+    /**
+     * End of the compilation: relocation of the constants and of the
+     * labels
+     */
+    private Vm getVm() {
+        emit(Vm.HALT);
+        int c[] = Arrays.copyOf(code, pc);
+        int firstConstant = numberOfInts + numberOfBools + numberOfTemps;
+        int p = 0;
+        while (p < c.length) {
+            String kinds = Vm.OPERANDS[c[p]];
+            for (int i = 0; i < kinds.length(); i++) {
+                int x = c[p + 1 + i];
+                if (kinds.charAt(i) == 'r' && x < 0)
+                    c[p + 1 + i] = firstConstant - 1 - x;
+                else if (kinds.charAt(i) == 't')
+                    c[p + 1 + i] = labels.get(x);
+            }
+            p += 1 + kinds.length();
+        }
+        int k[] = new int[constants.size()];
+        for (int i = 0; i < k.length; i++) k[i] = constants.get(i);
+        return new Vm(c, firstConstant + k.length, numberOfInts, numberOfBools,
+                      firstConstant, k, strings.toArray(new String[0]));
+    }
+}
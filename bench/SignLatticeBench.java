@@ -0,0 +1,96 @@
+package sapbench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the functions on one sign: union, the arithmetic
+ * tables and the conditions. Each invocation applies the function to
+ * all the pairs of a fixed random sample, so that the branches of
+ * union are not all predicted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignLatticeBench {
+
+    /** Number of pairs in the sample */
+    static final int PAIRS = 1024;
+
+    Sign left[] = new Sign[PAIRS];
+    Sign right[] = new Sign[PAIRS];
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        Sign all[] = Sign.values();
+        for (int i = 0; i < PAIRS; i++) {
+            left[i] = all[r.nextInt(all.length)];
+            right[i] = all[r.nextInt(all.length)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void union(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.union(left[i], right[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void plus(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.plus(left[i], right[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void minus(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.minus(left[i], right[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void mult(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.mult(left[i], right[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void gt(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.gt(left[i], right[i]));
+    }
+
+    /** lt builds a new SignPair at each call */
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void lt(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.lt(left[i], right[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void geq(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.geq(left[i], right[i]));
+    }
+
+    /** leq builds a new SignPair at each call */
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void leq(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++)
+            bh.consume(SignLattice.leq(left[i], right[i]));
+    }
+}
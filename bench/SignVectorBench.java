@@ -0,0 +1,106 @@
+package sapbench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of the operations on sign vectors, for both
+ * representations and for sizes from 1 to 10,000 variables.
+ * The vectors are random, without BOT (a BOT vector is BOT
+ * everywhere, and short-circuits most of the work).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignVectorBench {
+
+    /** Number of variables */
+    @Param({"1", "10", "100", "1000", "10000"})
+    int size;
+
+    /** Representation of the vectors */
+    @Param({"plain", "packed"})
+    String kind;
+
+    AbstractSignVector a, b, c, d;
+
+    Operator inf, sup;
+
+    int i, j;
+
+    private AbstractSignVector newVector() {
+        return kind.equals("packed") ? new PackedSignVector(size, Sign.BOT)
+                                     : new SignVector(size, Sign.BOT);
+    }
+
+    private AbstractSignVector random(Random r) {
+        Sign all[] = Sign.values();
+        // one uniform vector per sign but BOT, to assign from
+        AbstractSignVector from[] = new AbstractSignVector[all.length];
+        for (Sign s : all)
+            from[s.ordinal()] = kind.equals("packed") ? new PackedSignVector(size, s)
+                                                      : new SignVector(size, s);
+        AbstractSignVector v = from[Sign.TOP.ordinal()];
+        for (int k = 0; k < size; k++)
+            v = (AbstractSignVector)
+                v.copyChangeAssign(k, from[1 + r.nextInt(all.length - 1)]);
+        return v;
+    }
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        i = 0;
+        j = size - 1;
+        a = random(r);
+        b = random(r);
+        c = random(r);
+        c.union(a);
+        d = (AbstractSignVector)c.copyChangeAssign(i, c);
+        inf = new Operator(LgConstants.INF);
+        sup = new Operator(LgConstants.SUP);
+    }
+
+    /**
+     * Union of two vectors into a fresh one (allocation included), so
+     * that the state does not drift to TOP
+     */
+    @Benchmark
+    public AbstractSignVector union() {
+        AbstractSignVector v = newVector();
+        v.union(a);
+        v.union(b);
+        return v;
+    }
+
+    /** Equal vectors: the whole vector is compared */
+    @Benchmark
+    public boolean equalsSame() {
+        return c.equals(d);
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        return a.equals(b);
+    }
+
+    @Benchmark
+    public Object copyChangeAssign() {
+        return a.copyChangeAssign(j, b);
+    }
+
+    @Benchmark
+    public Object copyChangeCondLt() {
+        return a.copyChangeCond(i, j, inf, true);
+    }
+
+    @Benchmark
+    public Object copyChangeCondLeq() {
+        return a.copyChangeCond(i, j, sup, false);
+    }
+}